@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityManagerFactory;
+import org.easyj.orm.QueryHandle;
+import org.easyj.orm.SingleDao;
+import org.easyj.orm.SingleService;
+import org.easyj.orm.jpa.JPAEntityService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+/**
+ * Spring context and data set shared by every thread of a benchmark trial
+ * <br><br>
+ * {@link #rows} customers are saved on setup, spread over {@link #STATUSES} status values,
+ * so finders by status return about {@code rows / STATUSES} entities.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+@State(Scope.Benchmark)
+public class BenchmarkState {
+
+    public static final int STATUSES = 100;
+
+    /**
+     * Number of orders of each customer
+     */
+    public static final int ORDERS = 3;
+
+    @Param("10000")
+    public int rows;
+
+    private AnnotationConfigApplicationContext context;
+
+    private SingleService singleService;
+    private SingleDao singleDao;
+    private JPAEntityService entityService;
+    private EntityManagerFactory entityManagerFactory;
+
+    private QueryHandle<Customer> findByStatus;
+
+    private Long[] ids;
+    private String[] codes;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext(BenchmarkConfig.class);
+        singleService = context.getBean("singleJPAEntityService", SingleService.class);
+        singleDao = context.getBean(SingleDao.class);
+        entityService = context.getBean(JPAEntityService.class);
+        entityManagerFactory = context.getBean(EntityManagerFactory.class);
+
+        List<Customer> customers = new ArrayList<Customer>(rows);
+        for(int i = 0; i < rows; i++) {
+            customers.add(newCustomer());
+        }
+        singleService.saveAll(customers);
+
+        List<Customer> saved = singleService.findAll(Customer.class);
+        ids = new Long[saved.size()];
+        codes = new String[saved.size()];
+        List<CustomerOrder> orders = new ArrayList<CustomerOrder>(saved.size() * ORDERS);
+        for(int i = 0; i < saved.size(); i++) {
+            ids[i] = saved.get(i).getId();
+            codes[i] = saved.get(i).getCode();
+            for(int j = 0; j < ORDERS; j++) {
+                orders.add(new CustomerOrder(saved.get(i), j));
+            }
+        }
+        singleService.saveAll(orders);
+
+        findByStatus = singleService.prepare(SingleServiceBenchmark.BY_STATUS_QUERY, Customer.class).limit(-1, SingleServiceBenchmark.PAGE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * @return a new, not yet saved customer with a unique code
+     */
+    public Customer newCustomer() {
+        long next = sequence.incrementAndGet();
+        return new Customer("C" + next, "Customer " + next, (int) (next % STATUSES));
+    }
+
+    /**
+     * @param count number of customers
+     * @return new, not yet saved customers with unique codes
+     */
+    public List<Customer> newCustomers(int count) {
+        List<Customer> customers = new ArrayList<Customer>(count);
+        for(int i = 0; i < count; i++) {
+            customers.add(newCustomer());
+        }
+        return customers;
+    }
+
+    public Long randomId(Random random) {
+        return ids[random.nextInt(ids.length)];
+    }
+
+    public String randomCode(Random random) {
+        return codes[random.nextInt(codes.length)];
+    }
+
+    public int randomStatus(Random random) {
+        return random.nextInt(STATUSES);
+    }
+
+    public SingleService getSingleService() {
+        return singleService;
+    }
+
+    public SingleDao getSingleDao() {
+        return singleDao;
+    }
+
+    public JPAEntityService getEntityService() {
+        return entityService;
+    }
+
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
+    /**
+     * @return {@link SingleServiceBenchmark#BY_STATUS_QUERY} prepared once, limited to a page
+     */
+    public QueryHandle<Customer> getFindByStatus() {
+        return findByStatus;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.benchmark;
+
+import java.io.Serializable;
+import java.util.List;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.OneToMany;
+
+/**
+ * Entity used by the benchmarks
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+@Entity
+@NamedQueries({
+    @NamedQuery(name="Customer.findByUK", query="SELECT c FROM Customer c WHERE c.code = :code"),
+    @NamedQuery(name="Customer.findAll", query="SELECT c FROM Customer c"),
+    @NamedQuery(name="Customer.findByStatus", query="SELECT c FROM Customer c WHERE c.status = :status"),
+    @NamedQuery(name="Customer.summaryByStatus", query="SELECT c.id, c.code, c.name FROM Customer c WHERE c.status = :status")
+})
+public class Customer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @Column(nullable=false, unique=true)
+    private String code;
+
+    private String name;
+
+    private int status;
+
+    @OneToMany(mappedBy="customer")
+    private List<CustomerOrder> orders;
+
+    public Customer() {
+    }
+
+    public Customer(String code, String name, int status) {
+        this.code = code;
+        this.name = name;
+        this.status = status;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(String code) {
+        this.code = code;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public List<CustomerOrder> getOrders() {
+        return orders;
+    }
+
+    public void setOrders(List<CustomerOrder> orders) {
+        this.orders = orders;
+    }
+
+    @Override
+    public String toString() {
+        return "Customer[id=" + id + ", code=" + code + "]";
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.easyj.orm.EntityService;
+import org.easyj.orm.jpa.JPAEntityService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hot paths of the deprecated {@link JPAEntityService}, which are still in use
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class JPAEntityServiceBenchmark {
+
+    @Benchmark
+    public Customer load(BenchmarkState state) {
+        return state.getEntityService().load(Customer.class, state.randomId(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public Customer loadUK(BenchmarkState state) {
+        Customer customer = new Customer();
+        customer.setCode(state.randomCode(ThreadLocalRandom.current()));
+        return state.getEntityService().loadUK(customer);
+    }
+
+    @Benchmark
+    public List<Customer> loadList(BenchmarkState state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        params.put(EntityService.PARAM_MAX_RESULTS, SingleServiceBenchmark.PAGE);
+        return state.getEntityService().loadList(Customer.class, params);
+    }
+
+}
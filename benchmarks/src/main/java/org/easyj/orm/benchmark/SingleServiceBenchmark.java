@@ -0,0 +1,328 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.easyj.orm.BatchResult;
+import org.easyj.orm.ColumnBatch;
+import org.easyj.orm.FetchPlan;
+import org.easyj.orm.KeysetPage;
+import org.easyj.orm.Page;
+import org.easyj.orm.SingleDao;
+import org.easyj.orm.SingleDao.Aggregate;
+import org.easyj.orm.SingleService;
+import org.easyj.orm.SortKey;
+import org.easyj.orm.jpa.UnitOfWork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Hot paths of {@link SingleService} through {@code SingleJPAEntityService} and {@code SingleJPAEntityDao}
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class SingleServiceBenchmark {
+
+    /**
+     * Number of entities written by the batch benchmarks
+     */
+    public static final int BATCH = 100;
+
+    /**
+     * Maximum number of rows read by list finders
+     */
+    public static final int PAGE = 50;
+
+    /**
+     * Native query reading every customer, as analytics exports do
+     */
+    public static final String EXPORT_QUERY = "SELECT id, status FROM Customer";
+
+    /**
+     * JPQL query run both from its text and from a prepared handle
+     */
+    public static final String BY_STATUS_QUERY = "SELECT c FROM Customer c WHERE c.status = :status";
+
+    @Benchmark
+    public Customer findOne(BenchmarkState state) {
+        return state.getSingleService().findOne(Customer.class, state.randomId(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public Map<Long, Customer> findAllById(BenchmarkState state) {
+        return state.getSingleService().findAllById(Customer.class, randomIds(state));
+    }
+
+    @Benchmark
+    public int findOneLoop(BenchmarkState state) {
+        int found = 0;
+        for(Long id : randomIds(state)) {
+            if(state.getSingleService().findOne(Customer.class, id) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static List<Long> randomIds(BenchmarkState state) {
+        List<Long> ids = new ArrayList<Long>(PAGE);
+        for(int i = 0; i < PAGE; i++) {
+            ids.add(state.randomId(ThreadLocalRandom.current()));
+        }
+        return ids;
+    }
+
+    @Benchmark
+    public Customer findOneRepeated(BenchmarkState state) {
+        return findOneAndSave(state, state.randomId(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public Customer findOneRepeatedInUnitOfWork(BenchmarkState state) {
+        UnitOfWork.begin(state.getEntityManagerFactory());
+        try {
+            return findOneAndSave(state, state.randomId(ThreadLocalRandom.current()));
+        } finally {
+            UnitOfWork.end();
+        }
+    }
+
+    /**
+     * Service call looking the same customer up five times before saving it
+     */
+    private static Customer findOneAndSave(BenchmarkState state, Long id) {
+        Customer customer = null;
+        for(int i = 0; i < 5; i++) {
+            customer = state.getSingleService().findOne(Customer.class, id);
+        }
+        customer.setName("Customer " + id);
+        return state.getSingleService().save(customer);
+    }
+
+    @Benchmark
+    public Customer findByQuery(BenchmarkState state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("code", state.randomCode(ThreadLocalRandom.current()));
+        return state.getSingleService().findByQuery("Customer.findByUK", Customer.class, params);
+    }
+
+    @Benchmark
+    public List<Customer> findListByQuery(BenchmarkState state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        params.put(SingleDao.PARAM_MAX_RESULTS, PAGE);
+        return state.getSingleService().findListByQuery("Customer.findByStatus", Customer.class, params);
+    }
+
+    @Benchmark
+    public List<Customer> findListByJpql(BenchmarkState state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        params.put(SingleDao.PARAM_MAX_RESULTS, PAGE);
+        return state.getSingleService().findListByQuery(BY_STATUS_QUERY, Customer.class, params);
+    }
+
+    @Benchmark
+    public List<Customer> findListByHandle(BenchmarkState state) {
+        return state.getSingleService().findListByQuery(state.getFindByStatus(), state.randomStatus(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public List<Customer> findListByQueryReadOnly(BenchmarkState state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        params.put(SingleDao.PARAM_MAX_RESULTS, PAGE);
+        params.put(SingleDao.PARAM_READ_ONLY, Boolean.TRUE);
+        return state.getSingleService().findListByQuery("Customer.findByStatus", Customer.class, params);
+    }
+
+    @Benchmark
+    public int findListWithFetchPlan(BenchmarkState state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        int orders = 0;
+        for(Customer customer : state.getSingleService().findListByQuery("Customer.findByStatus", Customer.class, params, FetchPlan.of("orders"))) {
+            orders += customer.getOrders().size();
+        }
+        return orders;
+    }
+
+    /**
+     * Baseline of {@link #findListWithFetchPlan(org.easyj.orm.benchmark.BenchmarkState)}: one query per customer
+     */
+    @Benchmark
+    public int findListWithOrderQueries(BenchmarkState state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        int orders = 0;
+        for(Customer customer : state.getSingleService().findListByQuery("Customer.findByStatus", Customer.class, params)) {
+            Map<String, Object> filter = new HashMap<String, Object>();
+            filter.put("customer", customer);
+            orders += state.getSingleService().findAll(CustomerOrder.class, filter).size();
+        }
+        return orders;
+    }
+
+    @Benchmark
+    public List<CustomerSummary> findProjectionList(BenchmarkState state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        params.put(SingleDao.PARAM_MAX_RESULTS, PAGE);
+        return state.getSingleService().findProjectionList("Customer.summaryByStatus", CustomerSummary.class, params);
+    }
+
+    @Benchmark
+    public List<CustomerSummary> findProjectionListByNativeQuery(BenchmarkState state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        params.put(SingleDao.PARAM_MAX_RESULTS, PAGE);
+        return state.getSingleService().findProjectionListByNativeQuery(
+                "SELECT id, code, name FROM Customer WHERE status = :status", CustomerSummary.class, params);
+    }
+
+    @Benchmark
+    public List<Object[]> exportRows(BenchmarkState state) {
+        return state.getSingleService().findListByNativeQuery(EXPORT_QUERY, Object[].class, new HashMap<String, Object>());
+    }
+
+    @Benchmark
+    public ColumnBatch exportColumns(BenchmarkState state) {
+        return state.getSingleService().findColumnsByNativeQuery(EXPORT_QUERY, new HashMap<String, Object>());
+    }
+
+    @Benchmark
+    public List<Customer> findAllByParams(BenchmarkState state) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        params.put(SingleDao.PARAM_MAX_RESULTS, PAGE);
+        return state.getSingleService().findAll(Customer.class, params);
+    }
+
+    @Benchmark
+    public KeysetPage<Customer> findPage(BenchmarkState state) {
+        return state.getSingleService().findPage(Customer.class, null, SortKey.asc("id"),
+                state.randomId(ThreadLocalRandom.current()), PAGE);
+    }
+
+    @Benchmark
+    public Page<Customer> findPageByOffset(BenchmarkState state) {
+        Map<String, Object> filters = new HashMap<String, Object>();
+        filters.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        return state.getSingleService().findPage(Customer.class, filters, 1, PAGE / 10);
+    }
+
+    @Benchmark
+    public long count(BenchmarkState state) {
+        Map<String, Object> filters = new HashMap<String, Object>();
+        filters.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        return state.getSingleService().count(Customer.class, filters);
+    }
+
+    /**
+     * Baseline of {@link #count(org.easyj.orm.benchmark.BenchmarkState)}: loading the entities to count them
+     */
+    @Benchmark
+    public int countBySize(BenchmarkState state) {
+        Map<String, Object> filters = new HashMap<String, Object>();
+        filters.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        return state.getSingleService().findAll(Customer.class, filters).size();
+    }
+
+    @Benchmark
+    public boolean exists(BenchmarkState state) {
+        Map<String, Object> filters = new HashMap<String, Object>();
+        filters.put("status", state.randomStatus(ThreadLocalRandom.current()));
+        return state.getSingleService().exists(Customer.class, filters);
+    }
+
+    @Benchmark
+    public Map<Object, Object> aggregateByStatus(BenchmarkState state) {
+        return state.getSingleService().aggregate(Customer.class, Aggregate.MAX, "id", null, "status");
+    }
+
+    @Benchmark
+    public Customer save(BenchmarkState state) {
+        return state.getSingleService().save(state.newCustomer());
+    }
+
+    @Benchmark
+    public Customer insert(BenchmarkState state) {
+        return state.getSingleService().insert(state.newCustomer());
+    }
+
+    @Benchmark
+    public int updateStatus(BenchmarkState state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, Object> changes = new HashMap<String, Object>();
+        changes.put("status", state.randomStatus(random));
+        return state.getSingleDao().update(Customer.class, state.randomId(random), changes);
+    }
+
+    /**
+     * Baseline of {@link #updateStatus(org.easyj.orm.benchmark.BenchmarkState)}: loads the entity and saves it back
+     */
+    @Benchmark
+    public Customer updateStatusBySave(BenchmarkState state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Customer customer = state.getSingleService().findOne(Customer.class, state.randomId(random));
+        customer.setStatus(state.randomStatus(random));
+        return state.getSingleService().save(customer);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<BatchResult> saveAll(BenchmarkState state) {
+        return state.getSingleService().saveAll(state.newCustomers(BATCH));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<BatchResult> bulkInsert(BenchmarkState state) {
+        return state.getSingleService().bulkInsert(Customer.class, state.newCustomers(BATCH));
+    }
+
+    /**
+     * Baseline of {@link #saveAll(org.easyj.orm.benchmark.BenchmarkState)}: one transaction per entity
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void saveEach(BenchmarkState state, Blackhole blackhole) {
+        SingleService service = state.getSingleService();
+        for(Customer customer : state.newCustomers(BATCH)) {
+            blackhole.consume(service.save(customer));
+        }
+    }
+
+}
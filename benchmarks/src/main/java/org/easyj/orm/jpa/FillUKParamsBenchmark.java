@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.jpa;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.easyj.orm.benchmark.BenchmarkState;
+import org.easyj.orm.benchmark.Customer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.StringUtils;
+
+/**
+ * {@link JPAEntityService#fillUKParams(java.lang.Object)} against the 1.2 implementation,
+ * which parsed the {@code findByUK} query and looked the getters up on every call
+ * <br><br>
+ * Lives in the {@code jpa} package to reach the protected method.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class FillUKParamsBenchmark {
+
+    private JPAEntityService service;
+    private Customer customer;
+
+    @Setup
+    public void setUp(BenchmarkState state) {
+        service = state.getEntityService();
+        customer = new Customer("C1", "Customer 1", 1);
+    }
+
+    @Benchmark
+    public Map<String, Object> fillUKParams() {
+        return service.fillUKParams(customer);
+    }
+
+    @Benchmark
+    public Map<String, Object> fillUKParamsLegacy() {
+        return legacyFillUKParams(customer);
+    }
+
+    /**
+     * Copy of {@code fillUKParams} as released in 1.2
+     */
+    private <T> Map<String, Object> legacyFillUKParams(T entity) {
+        String query = service.getNamedQuery(entity.getClass().getSimpleName() + ".findByUK", entity.getClass());
+        if(query == null) {
+            return null;
+        }
+
+        Pattern pattern = Pattern.compile("\\S+\\s*=\\s*:\\S+");
+        Matcher matcher = pattern.matcher(query);
+        Matcher param;
+        pattern = Pattern.compile(":\\S+");
+
+        String[] props;
+        String group;
+        Object paramValue;
+        Map<String, Object> ukParams = new HashMap<String, Object>();
+        while(matcher.find()) {
+            group = matcher.group();
+            props = group.split("=")[0].trim().split("\\.");
+            paramValue = entity;
+            for(String prop : props) {
+                try {
+                    paramValue = paramValue.getClass().getMethod("get" + StringUtils.capitalize(prop)).invoke(paramValue);
+                } catch(Exception silent) {}
+            }
+            param = pattern.matcher(group);
+            if(param.find()) {
+                ukParams.put(param.group().replace(":", "").trim(), paramValue);
+            }
+        }
+
+        return ukParams;
+    }
+
+}
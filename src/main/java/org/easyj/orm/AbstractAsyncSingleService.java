@@ -0,0 +1,504 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import org.easyj.orm.SingleDao.Aggregate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Abstract {@link AsyncSingleService} that runs every call of a {@link SingleService} on an {@code ExecutorService}
+ * <br><br>
+ * Each call runs on a thread with no transaction bound to it, so the transactional
+ * {@code Dao} behind the service opens a transaction and a persistence context per call
+ * and independent calls overlap. At most {@link #getMaxConcurrency()} calls run at once,
+ * which should not be higher than the connection pool size.
+ * <br><br>
+ * Unless an executor is set, a fixed pool of {@code maxConcurrency} daemon threads is created
+ * on first use and shut down with the service, its size being the limit. Calls run on an executor
+ * that is set are limited by a semaphore of {@code maxConcurrency} permits instead, so on a JVM
+ * with virtual threads an executor creating one virtual thread per task can be set.
+ * Once the service is shut down every call is rejected.
+ * <br><br>
+ * Concrete classes need to provide the {@link SingleService}
+ * 
+ * @author Rafael Raposo
+ * @since 1.3.0
+ * @see org.easyj.orm.jpa.AsyncSingleJPAEntityService
+ */
+public abstract class AbstractAsyncSingleService implements AsyncSingleService {
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 10;
+
+    protected SingleService service;
+
+    public abstract void setService(SingleService service);
+
+    public abstract SingleService getService();
+
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+
+    private ExecutorService executor;
+    private boolean ownExecutor;
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private Semaphore permits;
+    private boolean shutdown;
+
+    @Override
+    public <E> Future<E> save(final E entity) {
+        return submit(new Callable<E>() {
+            @Override
+            public E call() {
+                return getService().save(entity);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<E> insert(final E entity) {
+        return submit(new Callable<E>() {
+            @Override
+            public E call() {
+                return getService().insert(entity);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<BatchResult>> saveAll(final Iterable<E> entities) {
+        return submit(new Callable<List<BatchResult>>() {
+            @Override
+            public List<BatchResult> call() {
+                return getService().saveAll(entities);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<BatchResult>> saveAll(final Iterator<E> entities, final int chunkSize) {
+        return submit(new Callable<List<BatchResult>>() {
+            @Override
+            public List<BatchResult> call() {
+                return getService().saveAll(entities, chunkSize);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<BatchResult>> bulkInsert(final Class<E> klazz, final Iterable<E> entities) {
+        return submit(new Callable<List<BatchResult>>() {
+            @Override
+            public List<BatchResult> call() {
+                return getService().bulkInsert(klazz, entities);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<BatchResult>> bulkInsert(final Class<E> klazz, final Iterator<E> entities, final int chunkSize) {
+        return submit(new Callable<List<BatchResult>>() {
+            @Override
+            public List<BatchResult> call() {
+                return getService().bulkInsert(klazz, entities, chunkSize);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<E> delete(final E entity) {
+        return submit(new Callable<E>() {
+            @Override
+            public E call() {
+                return getService().delete(entity);
+            }
+        });
+    }
+
+    @Override
+    public <E, ID> Future<E> delete(final Class<E> klazz, final ID primaryKey) {
+        return submit(new Callable<E>() {
+            @Override
+            public E call() {
+                return getService().delete(klazz, primaryKey);
+            }
+        });
+    }
+
+    @Override
+    public <E, ID> Future<E> findOne(final Class<E> klazz, final ID id) {
+        return submit(new Callable<E>() {
+            @Override
+            public E call() {
+                return getService().findOne(klazz, id);
+            }
+        });
+    }
+
+    @Override
+    public <E, ID> Future<E> findOne(final Class<E> klazz, final ID id, final FetchPlan fetchPlan) {
+        return submit(new Callable<E>() {
+            @Override
+            public E call() {
+                return getService().findOne(klazz, id, fetchPlan);
+            }
+        });
+    }
+
+    @Override
+    public <E, ID> Future<Map<ID, E>> findAllById(final Class<E> klazz, final Collection<ID> ids) {
+        return submit(new Callable<Map<ID, E>>() {
+            @Override
+            public Map<ID, E> call() {
+                return getService().findAllById(klazz, ids);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<E>> findAll(final Class<E> klazz) {
+        return submit(new Callable<List<E>>() {
+            @Override
+            public List<E> call() {
+                return getService().findAll(klazz);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<E>> findAll(final Class<E> klazz, final Map<String, Object> params) {
+        return submit(new Callable<List<E>>() {
+            @Override
+            public List<E> call() {
+                return getService().findAll(klazz, params);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<E>> findAll(final Class<E> klazz, final Map<String, Object> params, final FetchPlan fetchPlan) {
+        return submit(new Callable<List<E>>() {
+            @Override
+            public List<E> call() {
+                return getService().findAll(klazz, params, fetchPlan);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<KeysetPage<E>> findPage(final Class<E> klazz, final Map<String, Object> filters, final SortKey sortKey, final Object lastSeenKey, final int size) {
+        return submit(new Callable<KeysetPage<E>>() {
+            @Override
+            public KeysetPage<E> call() {
+                return getService().findPage(klazz, filters, sortKey, lastSeenKey, size);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<Page<E>> findPage(final Class<E> klazz, final Map<String, Object> filters, final int page, final int size) {
+        return submit(new Callable<Page<E>>() {
+            @Override
+            public Page<E> call() {
+                return getService().findPage(klazz, filters, page, size);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<Long> count(final Class<E> klazz, final Map<String, Object> filters) {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return getService().count(klazz, filters);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<Boolean> exists(final Class<E> klazz, final Map<String, Object> filters) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return getService().exists(klazz, filters);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<Object> aggregate(final Class<E> klazz, final Aggregate function, final String attribute, final Map<String, Object> filters) {
+        return submit(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return getService().aggregate(klazz, function, attribute, filters);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<Map<Object, Object>> aggregate(final Class<E> klazz, final Aggregate function, final String attribute, final Map<String, Object> filters, final String groupBy) {
+        return submit(new Callable<Map<Object, Object>>() {
+            @Override
+            public Map<Object, Object> call() {
+                return getService().aggregate(klazz, function, attribute, filters, groupBy);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<E> findByQuery(final String query, final Class<E> klazz, final Map<String, Object> params) {
+        return submit(new Callable<E>() {
+            @Override
+            public E call() {
+                return getService().findByQuery(query, klazz, params);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<E> findByQuery(final String query, final Class<E> klazz, final Map<String, Object> params, final FetchPlan fetchPlan) {
+        return submit(new Callable<E>() {
+            @Override
+            public E call() {
+                return getService().findByQuery(query, klazz, params, fetchPlan);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<E> findByNativeQuery(final String query, final Class<E> klazz, final Map<String, Object> params) {
+        return submit(new Callable<E>() {
+            @Override
+            public E call() {
+                return getService().findByNativeQuery(query, klazz, params);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<E>> findListByQuery(final String query, final Class<E> klazz, final Map<String, Object> params) {
+        return submit(new Callable<List<E>>() {
+            @Override
+            public List<E> call() {
+                return getService().findListByQuery(query, klazz, params);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<E>> findListByQuery(final String query, final Class<E> klazz, final Map<String, Object> params, final FetchPlan fetchPlan) {
+        return submit(new Callable<List<E>>() {
+            @Override
+            public List<E> call() {
+                return getService().findListByQuery(query, klazz, params, fetchPlan);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<E>> findListByNativeQuery(final String query, final Class<E> klazz, final Map<String, Object> params) {
+        return submit(new Callable<List<E>>() {
+            @Override
+            public List<E> call() {
+                return getService().findListByNativeQuery(query, klazz, params);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<E> findByQuery(final QueryHandle<E> handle, final Object... values) {
+        return submit(new Callable<E>() {
+            @Override
+            public E call() {
+                return getService().findByQuery(handle, values);
+            }
+        });
+    }
+
+    @Override
+    public <E> Future<List<E>> findListByQuery(final QueryHandle<E> handle, final Object... values) {
+        return submit(new Callable<List<E>>() {
+            @Override
+            public List<E> call() {
+                return getService().findListByQuery(handle, values);
+            }
+        });
+    }
+
+    @Override
+    public <D> Future<List<D>> findProjectionList(final String query, final Class<D> dtoClass, final Map<String, Object> params) {
+        return submit(new Callable<List<D>>() {
+            @Override
+            public List<D> call() {
+                return getService().findProjectionList(query, dtoClass, params);
+            }
+        });
+    }
+
+    @Override
+    public <D> Future<List<D>> findProjectionListByNativeQuery(final String query, final Class<D> dtoClass, final Map<String, Object> params) {
+        return submit(new Callable<List<D>>() {
+            @Override
+            public List<D> call() {
+                return getService().findProjectionListByNativeQuery(query, dtoClass, params);
+            }
+        });
+    }
+
+    @Override
+    public Future<ColumnBatch> findColumnsByNativeQuery(final String query, final Map<String, Object> params, final ColumnBatch.Type... types) {
+        return submit(new Callable<ColumnBatch>() {
+            @Override
+            public ColumnBatch call() {
+                return getService().findColumnsByNativeQuery(query, params, types);
+            }
+        });
+    }
+
+    /**
+     * Runs the task on the executor once a concurrency permit is available
+     *
+     * @param task task to run
+     * @return pending result of the task
+     * @throws RejectedExecutionException if the service was shut down
+     */
+    protected <T> Future<T> submit(final Callable<T> task) {
+        ExecutorService target;
+        final Semaphore limiter;
+        synchronized(this) {
+            if(shutdown) {
+                throw new RejectedExecutionException(getClass().getSimpleName() + " has been shut down");
+            }
+            target = getExecutor();
+            limiter = getPermits();
+        }
+        if(limiter == null) {
+            return target.submit(task);
+        }
+        return target.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                limiter.acquire();
+                try {
+                    return task.call();
+                } finally {
+                    limiter.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the executor running the calls, creating the default one on first use
+     *
+     * @return executor
+     * @throws IllegalStateException if the service was shut down before any executor was in use
+     */
+    public synchronized ExecutorService getExecutor() {
+        if(executor == null) {
+            if(shutdown) {
+                throw new IllegalStateException(getClass().getSimpleName() + " has been shut down");
+            }
+            executor = Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory(getClass().getSimpleName()));
+            ownExecutor = true;
+        }
+        return executor;
+    }
+
+    /**
+     * Sets the executor running the calls. It is not shut down with the service.
+     *
+     * @param executor executor
+     */
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        this.ownExecutor = false;
+    }
+
+    public synchronized int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of calls running at once
+     *
+     * @param maxConcurrency maximum concurrent calls, usually the connection pool size
+     * @throws IllegalStateException if a call was already made, as the limit is then in use
+     */
+    public synchronized void setMaxConcurrency(int maxConcurrency) {
+        if(ownExecutor || permits != null) {
+            throw new IllegalStateException("maxConcurrency must be set before the first call");
+        }
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Shuts down the default executor, if it was created, and rejects any further call.
+     * Calls already submitted still run.
+     */
+    @PreDestroy
+    public synchronized void shutdown() {
+        shutdown = true;
+        if(ownExecutor && executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return permits limiting the calls run on an executor that was set, or null for the default pool
+     */
+    private synchronized Semaphore getPermits() {
+        if(ownExecutor) {
+            return null;
+        }
+        if(permits == null) {
+            permits = new Semaphore(maxConcurrency);
+        }
+        return permits;
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
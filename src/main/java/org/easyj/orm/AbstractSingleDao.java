@@ -16,12 +16,34 @@
 
 package org.easyj.orm;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import javax.persistence.NoResultException;
+import javax.persistence.PersistenceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Abstract {@code Dao} that defines access methods to {@code @Services}
@@ -33,11 +55,116 @@ import org.springframework.transaction.annotation.Transactional;
  */
 @Transactional
 public abstract class AbstractSingleDao implements SingleDao {
+
+    private static final String PARAM_LAST_KEY = "keysetLastKey";
+    private static final String PARAM_IDS = "ids";
+    private static final String PARAM_ID = "id";
+    private static final String PARAM_SET_PREFIX = "set_";
+
+    /**
+     * Special parameters that are never bound as query parameters
+     */
+    protected static final Set<String> RESERVED_PARAMS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            PARAM_MAX_RESULTS, PARAM_START_POSITION, PARAM_FETCH_SIZE, PARAM_READ_ONLY)));
+
+    /**
+     * Builds {@code FROM <entity> c WHERE c.<param> = :<param> AND ...}
+     */
+    protected static final FinderQueryCache.QueryBuilder FIND_ALL_QUERY = new FinderQueryCache.QueryBuilder() {
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            return "FROM " + klazz.getName() + " c" + where(paramNames);
+        }
+    };
+    
+    /**
+     * Builds {@code SELECT COUNT(c) FROM <entity> c WHERE c.<param> = :<param> AND ...}
+     */
+    protected static final FinderQueryCache.QueryBuilder COUNT_QUERY = new FinderQueryCache.QueryBuilder() {
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            return "SELECT COUNT(c) FROM " + klazz.getName() + " c" + where(paramNames);
+        }
+    };
+
+    /**
+     * Builds {@code DELETE FROM <entity> c WHERE c.<param> = :<param> AND ...}
+     */
+    protected static final FinderQueryCache.QueryBuilder DELETE_WHERE_QUERY = new FinderQueryCache.QueryBuilder() {
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            return "DELETE FROM " + klazz.getName() + " c" + where(paramNames);
+        }
+    };
+
+    /**
+     * Builds {@code DELETE FROM <entity> c WHERE c.<id> IN :ids}
+     */
+    private final FinderQueryCache.QueryBuilder deleteByIdQuery = new FinderQueryCache.QueryBuilder() {
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            return "DELETE FROM " + klazz.getName() + " c WHERE c." + getIdAttribute(klazz) + " IN :" + PARAM_IDS;
+        }
+    };
     
+    /**
+     * Builds {@code SELECT c FROM <entity> c WHERE c.<id> IN :ids}
+     */
+    private final FinderQueryCache.QueryBuilder findByIdQuery = new FinderQueryCache.QueryBuilder() {
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            return "SELECT c FROM " + klazz.getName() + " c WHERE c." + getIdAttribute(klazz) + " IN :" + PARAM_IDS;
+        }
+    };
+
+    /**
+     * Builds {@code SELECT c.<id> FROM <entity> c WHERE c.<param> = :<param> AND ...}
+     */
+    private final FinderQueryCache.QueryBuilder existsQuery = new FinderQueryCache.QueryBuilder() {
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            return "SELECT c." + getIdAttribute(klazz) + " FROM " + klazz.getName() + " c" + where(paramNames);
+        }
+    };
+
+    /**
+     * Builds {@code FROM <entity> c WHERE c.<param> = :<param> AND ... ORDER BY c.<id>}
+     */
+    private final FinderQueryCache.QueryBuilder offsetPageQuery = new FinderQueryCache.QueryBuilder() {
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            String idAttribute = findIdAttribute(klazz);
+            return "FROM " + klazz.getName() + " c" + where(paramNames) + (idAttribute == null ? "" : " ORDER BY c." + idAttribute);
+        }
+    };
+
     protected Logger logger = LoggerFactory.getLogger(getClass());
 
+    private FinderQueryCache queryCache = new FinderQueryCache();
+
+    private EntityCache entityCache;
+
+    private QueryResultCache resultCache;
+
+    private volatile QueryMetrics metrics;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    private int idChunkSize = DEFAULT_ID_CHUNK_SIZE;
+
+    private boolean readOnly;
+
+    private volatile ExecutorService countExecutor;
+
+    private final ConcurrentMap<Class<?>, ProjectionMapper<?>> projections = new ConcurrentHashMap<Class<?>, ProjectionMapper<?>>();
+
     /**
      * Persists entity into database
+     * <br><br>
+     * New entities, as told by {@link #isNew(java.lang.Object)}, are inserted
+     * without reading them first. Any other entity is merged.
      *
      * @param entity Entity to be persisted
      * @return persisted entity
@@ -46,11 +173,188 @@ public abstract class AbstractSingleDao implements SingleDao {
     public <E> E save (E entity) {
         E newT = null;
         if(entity != null) {
-            newT = merge(entity);
+            newT = timedWrite(entity, isNew(entity));
+            evict(newT);
+            invalidateQueries(newT);
         }
         return newT;
     }
 
+    /**
+     * Inserts a new entity into database, without checking whether it already exists
+     * <br><br>
+     * The entity passed in becomes managed and is returned, with its generated id
+     * assigned. Inserting an entity that already exists fails with the
+     * persistence provider's exception.
+     *
+     * @param entity Entity to be inserted
+     * @return inserted entity
+     */
+    @Override
+    public <E> E insert(E entity) {
+        if(entity != null) {
+            timedWrite(entity, true);
+            evict(entity);
+            invalidateQueries(entity);
+        }
+        return entity;
+    }
+
+    /**
+     * Persists all entities into database in chunks of {@link #getBatchSize()}
+     *
+     * @param entities Entities to be persisted
+     * @return one {@link BatchResult} per chunk written
+     * @see #saveAll(java.util.Iterator, int)
+     */
+    @Override
+    public <E> List<BatchResult> saveAll(Iterable<E> entities) {
+        if(entities == null) {
+            return new ArrayList<BatchResult>();
+        }
+        return saveAll(entities.iterator(), getBatchSize());
+    }
+
+    /**
+     * Persists all entities into database in chunks.
+     * <br><br>
+     * Every {@code chunkSize} entities the pending statements are flushed and
+     * the persistence context is cleared, so the memory used stays flat no matter
+     * how many entities are read from the iterator. New entities are inserted as
+     * in {@link #save(java.lang.Object)} and any other entity is merged. No entity
+     * is left attached to the persistence context.
+     * <br><br>
+     * For the flushed statements to be sent in JDBC batches the persistence provider
+     * must be configured accordingly, e.g. {@code hibernate.jdbc.batch_size} equal to
+     * {@code chunkSize}.
+     *
+     * @param entities Entities to be persisted
+     * @param chunkSize number of entities written between each flush. Values lower than 1 use {@link #getBatchSize()}
+     * @return one {@link BatchResult} per chunk written
+     */
+    @Override
+    public <E> List<BatchResult> saveAll(Iterator<E> entities, int chunkSize) {
+        List<BatchResult> results = new ArrayList<BatchResult>();
+        if(entities == null) {
+            return results;
+        }
+        if(chunkSize < 1) {
+            chunkSize = getBatchSize();
+        }
+
+        Set<Class<?>> written = new HashSet<Class<?>>();
+        int rows = 0;
+        long total = 0;
+        long begin = System.nanoTime();
+        long start = begin;
+        try {
+            while(entities.hasNext()) {
+                E entity = entities.next();
+                if(entity == null) {
+                    continue;
+                }
+                E merged = isNew(entity) ? persistInBatch(entity) : mergeInBatch(entity);
+                evict(merged);
+                written.add(getEntityClass(merged));
+                if(++rows == chunkSize) {
+                    flushBatch();
+                    results.add(new BatchResult(results.size(), rows, System.nanoTime() - start));
+                    record("saveAll", null, start, rows, null);
+                    total += rows;
+                    rows = 0;
+                    start = System.nanoTime();
+                }
+            }
+            if(rows > 0) {
+                flushBatch();
+                results.add(new BatchResult(results.size(), rows, System.nanoTime() - start));
+                record("saveAll", null, start, rows, null);
+                total += rows;
+            }
+        } finally {
+            endBatch();
+            for(Class<?> klazz : written) {
+                invalidateQueries(klazz);
+            }
+        }
+
+        if(logger.isDebugEnabled()) {
+            long elapsed = System.nanoTime() - begin;
+            logger.debug("Saved {} entities in {} chunks: {} rows/s", new Object[] {total, results.size(), elapsed > 0 ? total * 1000000000L / elapsed : 0});
+        }
+        return results;
+    }
+
+    /**
+     * Inserts new entities in chunks of {@link #getBatchSize()}, bypassing the persistence context
+     *
+     * @param klazz Entity {@code Class}
+     * @param entities new entities to be inserted
+     * @return one {@link BatchResult} per chunk written
+     * @see #bulkInsert(java.lang.Class, java.util.Iterator, int)
+     */
+    @Override
+    public <E> List<BatchResult> bulkInsert(Class<E> klazz, Iterable<E> entities) {
+        if(entities == null) {
+            return new ArrayList<BatchResult>();
+        }
+        return bulkInsert(klazz, entities.iterator(), getBatchSize());
+    }
+
+    /**
+     * Inserts new entities in chunks, bypassing the persistence context.
+     * <br><br>
+     * Meant for append-only data: entities are neither attached nor dirty-checked, and each
+     * chunk is written straight to the database with as few statements as the implementation
+     * allows. Nothing cascades, and entities already in the database make the chunk fail.
+     *
+     * @param klazz Entity {@code Class}
+     * @param entities new entities to be inserted
+     * @param chunkSize number of entities written at once. Values lower than 1 use {@link #getBatchSize()}
+     * @return one {@link BatchResult} per chunk written
+     */
+    @Override
+    public <E> List<BatchResult> bulkInsert(Class<E> klazz, Iterator<E> entities, int chunkSize) {
+        List<BatchResult> results = new ArrayList<BatchResult>();
+        if(entities == null) {
+            return results;
+        }
+        if(chunkSize < 1) {
+            chunkSize = getBatchSize();
+        }
+
+        List<E> chunk = new ArrayList<E>(chunkSize);
+        long total = 0;
+        long begin = System.nanoTime();
+        try {
+            while(entities.hasNext()) {
+                E entity = entities.next();
+                if(entity != null) {
+                    chunk.add(entity);
+                }
+                if(chunk.size() == chunkSize || (!entities.hasNext() && !chunk.isEmpty())) {
+                    long start = System.nanoTime();
+                    long timer = metrics == null ? 0 : start;
+                    int rows = insertChunk(klazz, chunk);
+                    results.add(new BatchResult(results.size(), rows, System.nanoTime() - start));
+                    record(timer == 0 ? null : "bulkInsert " + klazz.getSimpleName(), null, timer, rows, null);
+                    total += rows;
+                    chunk.clear();
+                }
+            }
+        } finally {
+            if(!results.isEmpty()) {
+                invalidateQueries(klazz);
+            }
+        }
+
+        if(logger.isDebugEnabled()) {
+            long elapsed = System.nanoTime() - begin;
+            logger.debug("Inserted {} {} in {} chunks: {} rows/s", new Object[] {total, klazz.getSimpleName(), results.size(), elapsed > 0 ? total * 1000000000L / elapsed : 0});
+        }
+        return results;
+    }
+
     /**
      * Executes an update using a pre-defined {@code @NamedQuery} or a custom JPQL query
      * 
@@ -60,11 +364,11 @@ public abstract class AbstractSingleDao implements SingleDao {
      * @return the number of rows affected by the update
      */
     public int saveByQuery(String query, Map<String, Object> params) {
-        String lcq = query.toLowerCase();
-        if(lcq.startsWith("insert into ") || lcq.startsWith("update ") || lcq.startsWith("delete from ")) {
-            return executeUpdate(query, params, QueryType.JPQL);
+        evictAll();
+        if(isUpdateStatement(query)) {
+            return timedUpdate(query, params, QueryType.JPQL);
         }
-        return executeUpdate(query, params, QueryType.NAMED);
+        return timedUpdate(query, params, QueryType.NAMED);
     }
 
     /**
@@ -75,7 +379,22 @@ public abstract class AbstractSingleDao implements SingleDao {
      * @return the number of rows affected by the update
      */
     public int saveByNativeQuery(String query, Map<String, Object> params) {
-        return executeUpdate(query, params, QueryType.NATIVE);
+        evictAll();
+        return timedUpdate(query, params, QueryType.NATIVE);
+    }
+
+    /**
+     * Executes an update prepared by {@link #prepare(java.lang.String, java.lang.Class)}
+     * or {@link #prepareNative(java.lang.String, java.lang.Class)}
+     *
+     * @param handle prepared update
+     * @param values one value per parameter of the handle, in order
+     * @return the number of rows affected by the update
+     */
+    public int saveByQuery(QueryHandle<?> handle, Object... values) {
+        Map<String, Object> params = handle.bind(values);
+        evictAll();
+        return timedUpdate(handle.getQuery(), params, handle.getType());
     }
 
     /**
@@ -87,7 +406,9 @@ public abstract class AbstractSingleDao implements SingleDao {
     @Override
     public <E> E delete(E entity) {
         if(entity != null) {
-            remove(entity);
+            evict(entity);
+            timedRemove(entity);
+            invalidateQueries(entity);
         }
         
         return entity;
@@ -102,81 +423,1618 @@ public abstract class AbstractSingleDao implements SingleDao {
      */
     @Override
     public <E, ID> E delete(Class<E> klazz, ID primaryKey) {
-        E entity = findOne(klazz, primaryKey);
+        E entity = timedFind(klazz, primaryKey);
         
         return delete(entity);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Deletes entities by primary key without loading them.
+     * <br><br>
+     * Ids are deleted with {@code DELETE ... WHERE id IN (...)} statements of at most
+     * {@link #getIdChunkSize()} ids each. Being bulk statements, they do not cascade
+     * and do not affect entities already loaded in the persistence context.
+     *
+     * @param klazz Entity {@code Class}
+     * @param ids primary keys of the entities to be deleted
+     * @return number of rows deleted
+     */
     @Override
-    public <E> E findByQuery(String query, Class<E> klazz, Map<String, Object> params) {
-        if(query.toLowerCase().indexOf("from ") > -1) {
-            return findSingleResultByQuery(query, params, klazz, QueryType.JPQL);
+    public <E, ID> int deleteAllById(Class<E> klazz, Collection<ID> ids) {
+        if(ids == null || ids.isEmpty()) {
+            return 0;
         }
-        return findSingleResultByQuery(query, params, klazz, QueryType.NAMED);
+        String query = getQueryCache().get(klazz, "deleteAllById", Collections.<String>emptyList(), deleteByIdQuery);
+
+        int deleted = 0;
+        List<ID> chunk = new ArrayList<ID>(Math.min(ids.size(), getIdChunkSize()));
+        Iterator<ID> it = ids.iterator();
+        while(it.hasNext()) {
+            chunk.add(it.next());
+            if(chunk.size() == getIdChunkSize() || !it.hasNext()) {
+                Map<String, Object> params = new HashMap<String, Object>();
+                params.put(PARAM_IDS, chunk);
+                deleted += Math.max(0, timedUpdate(query, params, QueryType.JPQL));
+                chunk = new ArrayList<ID>(Math.min(ids.size(), getIdChunkSize()));
+            }
+        }
+
+        evict(klazz, ids);
+        invalidateQueries(klazz);
+        return deleted;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Deletes every entity whose properties match the parameters, without loading them.
+     * <br><br>
+     * Being a bulk statement, it does not cascade and does not affect entities already
+     * loaded in the persistence context. Nothing is deleted when no parameter is given.
+     *
+     * @param klazz Entity {@code Class}
+     * @param params entity properties to filter by
+     * @return number of rows deleted
+     */
     @Override
-    public <E> E findByNativeQuery(String query, Class<E> klazz, Map<String, Object> params) {
-        return findSingleResultByQuery(query, params, klazz, QueryType.NATIVE);
+    public <E> int deleteWhere(Class<E> klazz, Map<String, Object> params) {
+        List<String> names = paramNames(params);
+        if(names.isEmpty()) {
+            return 0;
+        }
+        String query = getQueryCache().get(klazz, "deleteWhere", names, DELETE_WHERE_QUERY);
+
+        int deleted = Math.max(0, timedUpdate(query, copy(params), QueryType.JPQL));
+
+        evict(klazz, null);
+        invalidateQueries(klazz);
+        return deleted;
     }
-    
-    public <E> E findSingleResultByQuery(String query, Map<String, Object> params, Class<E> klazz, QueryType type) {
-        try {
-            return getSingleResultByQuery(query, klazz, params, type);
-        } catch(NoResultException ex) {}
-        return null;
+
+    /**
+     * Updates attributes of an entity by primary key, without loading it.
+     * <br><br>
+     * Only the attributes given are written, with {@code UPDATE ... SET c.<attribute> = :set_<attribute>
+     * WHERE c.<id> = :id}, and numeric {@code @Version} attributes are incremented. Being a bulk
+     * statement, it does not affect the entity if it is already loaded in the persistence context.
+     *
+     * @param klazz Entity {@code Class}
+     * @param primaryKey Entity's primary key value
+     * @param changes new values keyed by entity attribute
+     * @return number of rows updated
+     */
+    @Override
+    public <E, ID> int update(Class<E> klazz, ID primaryKey, Map<String, Object> changes) {
+        List<String> names = paramNames(changes);
+        if(names.isEmpty() || primaryKey == null) {
+            return 0;
+        }
+        String query = getQueryCache().get(klazz, "update " + names, Collections.<String>emptyList(), new UpdateQueryBuilder(names, true));
+
+        Map<String, Object> params = updateParams(names, changes, null);
+        params.put(PARAM_ID, primaryKey);
+        int updated = Math.max(0, timedUpdate(query, params, QueryType.JPQL));
+
+        evict(klazz, Collections.singleton(primaryKey));
+        invalidateQueries(klazz);
+        return updated;
     }
 
     /**
-     * Loads entities from a {@code @NamedQuery}. Accepts param {@code Map} to fill the query.
+     * Updates attributes of every entity whose properties match the filters, without loading them.
+     * <br><br>
+     * Only the attributes given are written and numeric {@code @Version} attributes are incremented.
+     * Being a bulk statement, it does not affect entities already loaded in the persistence context.
+     * Nothing is updated when no filter is given.
+     *
+     * @param klazz Entity {@code Class}
+     * @param changes new values keyed by entity attribute
+     * @param filters entity properties to filter by
+     * @return number of rows updated
+     */
+    @Override
+    public <E> int updateWhere(Class<E> klazz, Map<String, Object> changes, Map<String, Object> filters) {
+        List<String> names = paramNames(changes);
+        List<String> filterNames = paramNames(filters);
+        if(names.isEmpty() || filterNames.isEmpty()) {
+            return 0;
+        }
+        String query = getQueryCache().get(klazz, "updateWhere " + names, filterNames, new UpdateQueryBuilder(names, false));
+
+        int updated = Math.max(0, timedUpdate(query, updateParams(names, changes, filters), QueryType.JPQL));
+
+        evict(klazz, null);
+        invalidateQueries(klazz);
+        return updated;
+    }
+
+    private Map<String, Object> updateParams(List<String> names, Map<String, Object> changes, Map<String, Object> filters) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        for(String name : names) {
+            params.put(PARAM_SET_PREFIX + name, changes.get(name));
+        }
+        if(filters != null) {
+            for(Map.Entry<String, Object> filter : filters.entrySet()) {
+                if(!RESERVED_PARAMS.contains(filter.getKey())) {
+                    params.put(filter.getKey(), filter.getValue());
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Finds a single entity in the database, going through the {@link EntityCache} if one is set.
+     * Entities loaded within an enclosing transaction or unit of work are not cached, see {@link #isCacheableRead()}.
      * 
-     * @param query {@code @NamedQuery} to be executed
+     * @param klazz class of entity to be found
+     * @param primaryKey primary key value of the entity to be found
+     * @return entity found or null if none is found
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E, ID> E findOne(Class<E> klazz, ID primaryKey) {
+        EntityCache cache = getEntityCache();
+        if(cache == null || primaryKey == null || !cache.isCached(klazz)) {
+            return timedFind(klazz, primaryKey);
+        }
+
+        E entity = cache.get(klazz, primaryKey);
+        if(entity == null) {
+            long generation = cache.getGeneration(klazz);
+            long start = System.nanoTime();
+            entity = timedFind(klazz, primaryKey);
+            if(entity != null && isCacheableRead()) {
+                cache.put(klazz, primaryKey, entity, generation, System.nanoTime() - start);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Finds a single entity in the database along with the associations of the {@link FetchPlan}.
+     * <br><br>
+     * The {@link EntityCache} is bypassed when a plan is given, as cached entities
+     * cannot have their associations loaded.
+     *
+     * @param klazz class of entity to be found
+     * @param primaryKey primary key value of the entity to be found
+     * @param fetchPlan associations to be loaded, or null for none
+     * @return entity found or null if none is found
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E, ID> E findOne(Class<E> klazz, ID primaryKey, FetchPlan fetchPlan) {
+        if(fetchPlan == null) {
+            return findOne(klazz, primaryKey);
+        }
+        E entity = timedFind(klazz, primaryKey);
+        if(entity != null) {
+            fetch(klazz, Collections.singletonList(entity), fetchPlan);
+        }
+        return entity;
+    }
+
+    /**
+     * Finds many entities by primary key, going through the {@link EntityCache} if one is set.
+     * <br><br>
+     * Ids not cached are loaded with {@code SELECT ... WHERE id IN (...)} queries of at most
+     * {@link #getIdChunkSize()} ids each. Every {@code IN} list is padded to a power of two by
+     * repeating its last id, so the database and the persistence provider see a handful of
+     * distinct statements whatever the number of ids. Entities loaded are put in the cache
+     * under the same rule as {@link #findOne(java.lang.Class, java.lang.Object)}.
+     *
+     * @param klazz class of entities to be found
+     * @param ids primary keys of the entities to be found. Null and repeated ids are ignored
+     * @return entities found by primary key, in the order of {@code ids}. Ids not found are left out
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E, ID> Map<ID, E> findAllById(Class<E> klazz, Collection<ID> ids) {
+        if(ids == null || ids.isEmpty()) {
+            return new LinkedHashMap<ID, E>();
+        }
+        EntityCache cache = getEntityCache();
+        boolean cached = cache != null && cache.isCached(klazz);
+        boolean cacheable = cached && isCacheableRead();
+
+        Set<ID> unique = new LinkedHashSet<ID>(ids);
+        unique.remove(null);
+        Map<Object, E> found = new HashMap<Object, E>(unique.size() * 4 / 3 + 1);
+        List<ID> missing = new ArrayList<ID>(unique.size());
+        for(ID id : unique) {
+            E entity = cached ? cache.get(klazz, id) : null;
+            if(entity != null) {
+                found.put(id, entity);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        if(!missing.isEmpty()) {
+            long generation = cached ? cache.getGeneration(klazz) : 0;
+            String query = getQueryCache().get(klazz, "findAllById", Collections.<String>emptyList(), findByIdQuery);
+            for(int from = 0; from < missing.size(); from += getIdChunkSize()) {
+                List<ID> chunk = pad(missing.subList(from, Math.min(missing.size(), from + getIdChunkSize())));
+                Map<String, Object> params = new HashMap<String, Object>();
+                params.put(PARAM_IDS, chunk);
+                long start = System.nanoTime();
+                List<E> loaded = timedResultList(query, klazz, params, QueryType.JPQL, false);
+                long loadTime = loaded.isEmpty() ? 0 : (System.nanoTime() - start) / loaded.size();
+                for(E entity : loaded) {
+                    Object id = getIdentifier(entity);
+                    found.put(id, entity);
+                    if(cacheable) {
+                        cache.put(klazz, id, entity, generation, loadTime);
+                    }
+                }
+            }
+        }
+
+        Map<ID, E> result = new LinkedHashMap<ID, E>(found.size() * 4 / 3 + 1);
+        for(ID id : unique) {
+            E entity = found.get(id);
+            if(entity != null) {
+                result.put(id, entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Repeats the last id of the chunk up to the next power of two, bounded by {@link #getIdChunkSize()}
+     */
+    private <ID> List<ID> pad(List<ID> chunk) {
+        int size = chunk.size();
+        int padded = size < 2 ? size : Math.min(Integer.highestOneBit(size - 1) << 1, Math.max(size, getIdChunkSize()));
+        List<ID> ids = new ArrayList<ID>(padded);
+        ids.addAll(chunk);
+        ID last = chunk.get(size - 1);
+        while(ids.size() < padded) {
+            ids.add(last);
+        }
+        return ids;
+    }
+
+    /**
+     * Loads a page of entities using keyset (seek) pagination.
+     * <br><br>
+     * Instead of skipping rows with an offset, the query seeks directly past the
+     * last key seen, so loading deep pages costs the same as loading the first one.
+     *
      * @param klazz {@code Class} type from expected entities
-     * @param params Parameters {@code Map} with key matching parameters in {@code @NamedQuery}. For queries without parameters, pass an empty {@code Map}.
-     * @return entity list returned from the database
+     * @param filters entity properties to filter by. Can be null
+     * @param sortKey unique attribute used to order and seek
+     * @param lastSeenKey value returned by {@link KeysetPage#getNextKey()} of the previous page, or null for the first page
+     * @param size maximum number of entities in the page
+     * @return page holding the entities and the cursor to the next page
+     * @throws IllegalArgumentException if {@code sortKey} is null or {@code size} is not positive
      */
-    @SuppressWarnings("unchecked")
+    @Transactional(readOnly = true)
     @Override
-    public <E> List<E> findListByQuery(String query, Class<E> klazz, Map<String, Object> params) {
-        if(query.toLowerCase().indexOf("from ") > -1) {
-            return getResultListByQuery(query, klazz, params, QueryType.JPQL);
+    public <E> KeysetPage<E> findPage(Class<E> klazz, Map<String, Object> filters, SortKey sortKey, Object lastSeenKey, int size) {
+        if(sortKey == null) {
+            throw new IllegalArgumentException("Keyset pagination needs a sort key");
+        }
+        if(size < 1 || size == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + (Integer.MAX_VALUE - 1) + ": size=" + size);
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        if(filters != null) {
+            params.putAll(filters);
+        }
+        String query = getQueryCache().get(klazz, "findPage " + sortKey + (lastSeenKey != null ? " seek" : ""), paramNames(filters), new KeysetQueryBuilder(sortKey, lastSeenKey != null));
+        if(lastSeenKey != null) {
+            params.put(PARAM_LAST_KEY, lastSeenKey);
+        }
+        params.put(PARAM_MAX_RESULTS, size + 1);
+
+        List<E> result = timedResultList(query, klazz, params, QueryType.JPQL, false);
+
+        boolean hasNext = result.size() > size;
+        if(hasNext) {
+            result = new ArrayList<E>(result.subList(0, size));
+        }
+        Object nextKey = null;
+        if(!result.isEmpty()) {
+            nextKey = getAttributeValue(klazz, result.get(result.size() - 1), sortKey.getAttribute());
         }
-        return getResultListByQuery(query, klazz, params, QueryType.NAMED);
+        return new KeysetPage<E>(result, nextKey, hasNext);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Loads a page of entities ordered by id, along with the total number of entities matching the filters.
+     * <br><br>
+     * When a {@link #setCountExecutor(java.util.concurrent.ExecutorService) count executor} is set and
+     * the call does not take part in a read-write transaction, the count runs on the executor while
+     * the page is loaded. The count is skipped when the page itself shows the total.
+     *
+     * @param klazz Entity {@code Class}
+     * @param filters attribute values the entities must match, or null for all entities
+     * @param page zero based page index
+     * @param size maximum number of entities per page
+     * @return page of entities
+     * @throws IllegalArgumentException if {@code page} is negative, {@code size} is not positive
+     * or the page starts past {@link Integer#MAX_VALUE} entities
+     */
+    @Transactional(readOnly = true)
     @Override
-    public <E> List<E> findListByNativeQuery(String query, Class<E> klazz, Map<String, Object> params) {
-        return (List<E>) getResultListByQuery(query, klazz, params, QueryType.NATIVE);
+    public <E> Page<E> findPage(final Class<E> klazz, final Map<String, Object> filters, int page, int size) {
+        if(page < 0 || size < 1) {
+            throw new IllegalArgumentException("Page must not be negative and size must be positive: page=" + page + ", size=" + size);
+        }
+        long offset = (long) page * size;
+        if(offset > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Page starts past the maximum offset: page=" + page + ", size=" + size);
+        }
+
+        Future<Long> total = null;
+        ExecutorService executor = getCountExecutor();
+        if(executor != null && (!TransactionSynchronizationManager.isActualTransactionActive()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly())) {
+            total = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return count(klazz, filters);
+                }
+            });
+        }
+
+        try {
+            Map<String, Object> params = filterParams(filters);
+            params.put(PARAM_START_POSITION, (int) offset);
+            params.put(PARAM_MAX_RESULTS, size);
+            String query = getQueryCache().get(klazz, "findPage offset", paramNames(filters), offsetPageQuery);
+            List<E> content = timedResultList(query, klazz, params, QueryType.JPQL, false);
+
+            long totalElements;
+            if(content.size() < size && (!content.isEmpty() || page == 0)) {
+                totalElements = offset + content.size();
+            } else if(total != null) {
+                totalElements = get(total);
+            } else {
+                totalElements = count(klazz, filters);
+            }
+            total = null;
+            return new Page<E>(content, page, size, totalElements);
+        } finally {
+            if(total != null) {
+                total.cancel(true);
+            }
+        }
     }
 
-    protected abstract <E> E merge(E entity);
-    
-    protected abstract <E> void remove(E entity);
-    
-    protected abstract int executeUpdate(String query, Map<String, Object> params, QueryType queryType);
+    /**
+     * Counts entities without loading them
+     *
+     * @param klazz Entity {@code Class}
+     * @param filters attribute values the entities must match, or null for all entities
+     * @return number of matching entities
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E> long count(Class<E> klazz, Map<String, Object> filters) {
+        String query = getQueryCache().get(klazz, "count", paramNames(filters), COUNT_QUERY);
+        Number count = (Number) singleValue(query, filterParams(filters));
+        return count == null ? 0 : count.longValue();
+    }
 
-    protected abstract <E> E getSingleResultByQuery(String query, Class<E> klazz, Map<String, Object> params, QueryType queryType);
+    /**
+     * Checks whether any entity matches the filters, reading at most one id
+     *
+     * @param klazz Entity {@code Class}
+     * @param filters attribute values the entity must match, or null for any entity
+     * @return true if at least one entity matches
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E> boolean exists(Class<E> klazz, Map<String, Object> filters) {
+        if(findIdAttribute(klazz) == null) {
+            return count(klazz, filters) > 0;
+        }
+        String query = getQueryCache().get(klazz, "exists", paramNames(filters), existsQuery);
+        Map<String, Object> params = filterParams(filters);
+        params.put(PARAM_MAX_RESULTS, 1);
+        return !timedRows(query, params).isEmpty();
+    }
 
-    protected abstract <E> List<E> getResultListByQuery(String query, Class<E> klazz, Map<String, Object> params, QueryType queryType);
+    /**
+     * Computes an aggregate of an attribute over the entities matching the filters
+     *
+     * @param klazz Entity {@code Class}
+     * @param function aggregate function
+     * @param attribute entity attribute to aggregate
+     * @param filters attribute values the entities must match, or null for all entities
+     * @return aggregated value, or null if no entity matches
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E> Object aggregate(Class<E> klazz, Aggregate function, String attribute, Map<String, Object> filters) {
+        String query = getQueryCache().get(klazz, "aggregate " + function + " " + attribute, paramNames(filters),
+                new AggregateQueryBuilder(function, attribute, null));
+        return singleValue(query, filterParams(filters));
+    }
 
     /**
-     * Returns a query string from the parameters given
-     * 
-     * @param params
-     * @return query string
+     * Computes an aggregate of an attribute over the entities matching the filters, per value of another attribute
+     *
+     * @param klazz Entity {@code Class}
+     * @param function aggregate function
+     * @param attribute entity attribute to aggregate
+     * @param filters attribute values the entities must match, or null for all entities
+     * @param groupBy entity attribute to group by
+     * @return aggregated values keyed by group, in group order
      */
-    protected String queryParams(Map<String, Object> params) {
-        if(params == null) return "";
-        String q = "";
-        
-        for(String key : params.keySet()) {
-            q += " c." + key + " = :" + key + " AND ";
+    @Transactional(readOnly = true)
+    @Override
+    public <E> Map<Object, Object> aggregate(Class<E> klazz, Aggregate function, String attribute, Map<String, Object> filters, String groupBy) {
+        String query = getQueryCache().get(klazz, "aggregate " + function + " " + attribute + " by " + groupBy, paramNames(filters),
+                new AggregateQueryBuilder(function, attribute, groupBy));
+        Map<Object, Object> result = new LinkedHashMap<Object, Object>();
+        for(Object row : timedRows(query, filterParams(filters))) {
+            Object[] columns = (Object[]) row;
+            result.put(columns[0], columns[1]);
+        }
+        return result;
+    }
+
+    private Object singleValue(String query, Map<String, Object> params) {
+        List<?> rows = timedRows(query, params);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private List<?> timedRows(String query, Map<String, Object> params) {
+        long start = startTimer();
+        try {
+            List<?> rows = getProjectionListByQuery(query, params, QueryType.JPQL);
+            record(query, QueryType.JPQL, start, rows.size(), null);
+            return rows;
+        } catch(RuntimeException ex) {
+            record(query, QueryType.JPQL, start, 0, ex);
+            throw ex;
+        }
+    }
+
+    private Map<String, Object> filterParams(Map<String, Object> filters) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        if(filters != null) {
+            params.putAll(filters);
+        }
+        return params;
+    }
+
+    private static long get(Future<Long> total) {
+        try {
+            return total.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted while counting entities", ex);
+        } catch(ExecutionException ex) {
+            if(ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new PersistenceException("Could not count entities", ex.getCause());
+        }
+    }
+
+    /**
+     * Prepares a {@code @NamedQuery}, a JPQL query or a JPQL update to be executed many times.
+     * The query type and its parameter names are resolved here, once.
+     *
+     * @param query {@code @NamedQuery} name, JPQL query or JPQL update
+     * @param klazz {@code Class} type from expected results
+     * @return reusable handle for the query
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E> QueryHandle<E> prepare(String query, Class<E> klazz) {
+        QueryType type = isUpdateStatement(query) || isQueryString(query) ? QueryType.JPQL : QueryType.NAMED;
+        return new QueryHandle<E>(query, klazz, type, getQueryString(query, type));
+    }
+
+    /**
+     * Prepares a native query or update to be executed many times
+     *
+     * @param query native SQL with named parameters
+     * @param klazz {@code Class} type from expected results
+     * @return reusable handle for the query
+     */
+    @Override
+    public <E> QueryHandle<E> prepareNative(String query, Class<E> klazz) {
+        return new QueryHandle<E>(query, klazz, QueryType.NATIVE, query);
+    }
+
+    /**
+     * Loads a single result from a prepared query
+     *
+     * @param handle query returned by {@link #prepare(java.lang.String, java.lang.Class)} or {@link #prepareNative(java.lang.String, java.lang.Class)}
+     * @param values one value per parameter of the handle, in order
+     * @return result found or null if none is found
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E> E findByQuery(QueryHandle<E> handle, Object... values) {
+        return findSingleResultByQuery(handle.getQuery(), handle.bind(values), handle.getResultClass(), handle.getType());
+    }
+
+    /**
+     * Loads the results of a prepared query
+     *
+     * @param handle query returned by {@link #prepare(java.lang.String, java.lang.Class)} or {@link #prepareNative(java.lang.String, java.lang.Class)}
+     * @param values one value per parameter of the handle, in order
+     * @return list of results found
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E> List<E> findListByQuery(QueryHandle<E> handle, Object... values) {
+        return findResultList(handle.getQuery(), handle.getResultClass(), handle.bind(values), handle.getType(), false);
+    }
+
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E> E findByQuery(String query, Class<E> klazz, Map<String, Object> params) {
+        if(isQueryString(query)) {
+            return findSingleResultByQuery(query, params, klazz, QueryType.JPQL);
+        }
+        return findSingleResultByQuery(query, params, klazz, QueryType.NAMED);
+    }
+
+    /**
+     * Loads a single entity from a {@code @NamedQuery} or a JPQL query along with the
+     * associations of the {@link FetchPlan}, bypassing the {@link QueryResultCache}
+     *
+     * @param query {@code @NamedQuery} name or JPQL query to be executed
+     * @param klazz {@code Class} type from expected entity
+     * @param params Parameters {@code Map} with key matching parameters in the query
+     * @param fetchPlan associations to be loaded, or null for none
+     * @return entity found or null if none is found
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E> E findByQuery(String query, Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan) {
+        if(fetchPlan == null) {
+            return findByQuery(query, klazz, params);
+        }
+        E entity = getSingleResult(query, params, klazz, isQueryString(query) ? QueryType.JPQL : QueryType.NAMED);
+        if(entity != null) {
+            fetch(klazz, Collections.singletonList(entity), fetchPlan);
+        }
+        return entity;
+    }
+
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E> E findByNativeQuery(String query, Class<E> klazz, Map<String, Object> params) {
+        return findSingleResultByQuery(query, params, klazz, QueryType.NATIVE);
+    }
+    
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    public <E> E findSingleResultByQuery(String query, Map<String, Object> params, Class<E> klazz, QueryType type) {
+        QueryResultCache cache = getResultCache();
+        if(cache == null || !cache.isCacheable(query)) {
+            return getSingleResult(query, params, klazz, type);
+        }
+
+        E entity = (E) cache.get(query, type, params);
+        if(entity == null) {
+            Map<String, Object> key = copy(params);
+            long generation = cache.getGeneration();
+            long start = System.nanoTime();
+            entity = getSingleResult(query, params, klazz, type);
+            if(isCacheableRead()) {
+                cache.put(query, type, key, klazz, entity, generation, System.nanoTime() - start);
+            }
+        }
+        return entity;
+    }
+
+    private <E> E getSingleResult(String query, Map<String, Object> params, Class<E> klazz, QueryType type) {
+        long start = startTimer();
+        try {
+            E entity = getSingleResultByQuery(query, klazz, params, type);
+            record(query, type, start, entity == null ? 0 : 1, null);
+            return entity;
+        } catch(NoResultException ex) {
+            record(query, type, start, 0, null);
+        } catch(RuntimeException ex) {
+            record(query, type, start, 0, ex);
+            throw ex;
+        }
+        return null;
+    }
+
+    /**
+     * Loads entities from a {@code @NamedQuery}. Accepts param {@code Map} to fill the query.
+     * 
+     * @param query {@code @NamedQuery} to be executed
+     * @param klazz {@code Class} type from expected entities
+     * @param params Parameters {@code Map} with key matching parameters in {@code @NamedQuery}. For queries without parameters, pass an empty {@code Map}.
+     * @return entity list returned from the database
+     */
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E> List<E> findListByQuery(String query, Class<E> klazz, Map<String, Object> params) {
+        if(isQueryString(query)) {
+            return findResultList(query, klazz, params, QueryType.JPQL, false);
+        }
+        return findResultList(query, klazz, params, QueryType.NAMED, false);
+    }
+
+    /**
+     * Loads entities from a {@code @NamedQuery} or a JPQL query along with the associations
+     * of the {@link FetchPlan}, bypassing the {@link QueryResultCache}.
+     * <br><br>
+     * Each path of the plan is loaded with {@code JOIN FETCH} for all entities found at once,
+     * in chunks of {@link #getIdChunkSize()} ids, so a list costs one query plus one per path
+     * however many entities it holds.
+     *
+     * @param query {@code @NamedQuery} name or JPQL query to be executed
+     * @param klazz {@code Class} type from expected entities
+     * @param params Parameters {@code Map} with key matching parameters in the query
+     * @param fetchPlan associations to be loaded, or null for none
+     * @return list of entities found
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <E> List<E> findListByQuery(String query, Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan) {
+        if(fetchPlan == null) {
+            return findListByQuery(query, klazz, params);
+        }
+        List<E> result = timedResultList(query, klazz, params, isQueryString(query) ? QueryType.JPQL : QueryType.NAMED, false);
+        fetch(klazz, result, fetchPlan);
+        return result;
+    }
+
+    /**
+     * Loads every path of the plan into the entities, with one {@code JOIN FETCH} query per path
+     * and chunk of ids. The association read is set on the entities unless the query returned
+     * the very same instances, as it does when they are managed by the current persistence context.
+     */
+    private <E> void fetch(Class<E> klazz, List<E> entities, FetchPlan fetchPlan) {
+        if(entities.isEmpty() || fetchPlan.getPaths().isEmpty()) {
+            return;
+        }
+        Map<Object, E> byId = new LinkedHashMap<Object, E>();
+        for(E entity : entities) {
+            if(entity != null) {
+                byId.put(getIdentifier(entity), entity);
+            }
+        }
+        List<Object> ids = new ArrayList<Object>(byId.keySet());
+
+        for(String path : fetchPlan.getPaths()) {
+            String query = getQueryCache().get(klazz, "fetch " + path, Collections.<String>emptyList(), new FetchQueryBuilder(path));
+            String attribute = path.indexOf('.') > -1 ? path.substring(0, path.indexOf('.')) : path;
+            for(int from = 0; from < ids.size(); from += getIdChunkSize()) {
+                Map<String, Object> params = new HashMap<String, Object>();
+                params.put(PARAM_IDS, new ArrayList<Object>(ids.subList(from, Math.min(ids.size(), from + getIdChunkSize()))));
+                for(E fetched : timedResultList(query, klazz, params, QueryType.JPQL, false)) {
+                    E entity = byId.get(getIdentifier(fetched));
+                    if(entity != null && entity != fetched) {
+                        setAttributeValue(klazz, entity, attribute, getAttributeValue(klazz, fetched, attribute));
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E> List<E> findResultList(String query, Class<E> klazz, Map<String, Object> params, QueryType type, boolean projection) {
+        QueryResultCache cache = getResultCache();
+        if(cache == null || !cache.isCacheable(query)) {
+            return timedResultList(query, klazz, params, type, projection);
+        }
+
+        List<E> cached = (List<E>) cache.get(query, type, params);
+        if(cached != null) {
+            return new ArrayList<E>(cached);
+        }
+        Map<String, Object> key = copy(params);
+        long generation = cache.getGeneration();
+        long start = System.nanoTime();
+        List<E> result = timedResultList(query, klazz, params, type, projection);
+        if(projection || isCacheableRead()) {
+            cache.put(query, type, key, klazz, new ArrayList<E>(result), generation, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    private <E, ID> E timedFind(Class<E> klazz, ID primaryKey) {
+        long start = startTimer();
+        try {
+            E entity = find(klazz, primaryKey);
+            record(start == 0 ? null : "find " + klazz.getSimpleName(), null, start, entity == null ? 0 : 1, null);
+            return entity;
+        } catch(RuntimeException ex) {
+            record(start == 0 ? null : "find " + klazz.getSimpleName(), null, start, 0, ex);
+            throw ex;
+        }
+    }
+
+    private <E> E timedWrite(E entity, boolean isNew) {
+        long start = startTimer();
+        try {
+            E merged = isNew ? persist(entity) : merge(entity);
+            record(start == 0 ? null : "save " + entity.getClass().getSimpleName(), null, start, 1, null);
+            return merged;
+        } catch(RuntimeException ex) {
+            record(start == 0 ? null : "save " + entity.getClass().getSimpleName(), null, start, 0, ex);
+            throw ex;
+        }
+    }
+
+    private <E> void timedRemove(E entity) {
+        long start = startTimer();
+        try {
+            remove(entity);
+            record(start == 0 ? null : "delete " + entity.getClass().getSimpleName(), null, start, 1, null);
+        } catch(RuntimeException ex) {
+            record(start == 0 ? null : "delete " + entity.getClass().getSimpleName(), null, start, 0, ex);
+            throw ex;
+        }
+    }
+
+    private int timedUpdate(String query, Map<String, Object> params, QueryType type) {
+        long start = startTimer();
+        try {
+            int rows = executeUpdate(query, params, type);
+            record(query, type, start, Math.max(0, rows), null);
+            return rows;
+        } catch(RuntimeException ex) {
+            record(query, type, start, 0, ex);
+            throw ex;
+        }
+    }
+
+    private <E> List<E> timedResultList(String query, Class<E> klazz, Map<String, Object> params, QueryType type,
+            boolean projection) {
+        long start = startTimer();
+        try {
+            List<E> result = projection
+                    ? getProjectionMapper(klazz).map(getProjectionListByQuery(query, params, type))
+                    : getResultListByQuery(query, klazz, params, type);
+            record(query, type, start, result.size(), null);
+            return result;
+        } catch(RuntimeException ex) {
+            record(query, type, start, 0, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Starts timing an operation
+     *
+     * @return start time, or 0 if no {@link QueryMetrics} is set
+     */
+    protected long startTimer() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records an operation timed from {@link #startTimer()} into the {@link QueryMetrics}, if one is set
+     *
+     * @param name {@code @NamedQuery} name, query string or entity operation
+     * @param type query type, or null for entity operations
+     * @param start value returned by {@link #startTimer()}
+     * @param rows number of rows returned or affected
+     * @param error exception thrown by the operation, or null if it succeeded
+     */
+    protected void record(String name, QueryType type, long start, int rows, Throwable error) {
+        QueryMetrics m = metrics;
+        if(m != null && start != 0) {
+            m.record(name, type, System.nanoTime() - start, rows, error);
+        }
+    }
+
+    private Map<String, Object> copy(Map<String, Object> params) {
+        return params == null ? null : new HashMap<String, Object>(params);
+    }
+
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E> List<E> findListByNativeQuery(String query, Class<E> klazz, Map<String, Object> params) {
+        return (List<E>) timedResultList(query, klazz, params, QueryType.NATIVE, false);
+    }
+
+    /**
+     * Loads a projection from a {@code @NamedQuery} or a JPQL query, without loading entities.
+     * <br><br>
+     * The query selects the values to be passed, in order, to a constructor of {@code dtoClass}, as in
+     * {@code SELECT c.id, c.name FROM Customer c}, or uses a {@code SELECT NEW} constructor expression.
+     * Rows are neither managed nor dirty-checked by the persistence context.
+     *
+     * @param query {@code @NamedQuery} name or JPQL query to be executed
+     * @param dtoClass {@code Class} of the projection
+     * @param params Parameters {@code Map} with key matching parameters in the query. For queries without parameters, pass an empty {@code Map}.
+     * @return one projection per row returned from the database
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <D> List<D> findProjectionList(String query, Class<D> dtoClass, Map<String, Object> params) {
+        if(isQueryString(query)) {
+            return findResultList(query, dtoClass, params, QueryType.JPQL, true);
+        }
+        return findResultList(query, dtoClass, params, QueryType.NAMED, true);
+    }
+
+    /**
+     * Loads a projection from a native SQL query, mapping each row to a constructor of {@code dtoClass}
+     * with as many arguments as the selected columns. Numeric columns are converted to the declared types.
+     *
+     * @param query native SQL query to be executed
+     * @param dtoClass {@code Class} of the projection
+     * @param params Parameters {@code Map} with key matching parameters in the query. For queries without parameters, pass an empty {@code Map}.
+     * @return one projection per row returned from the database
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public <D> List<D> findProjectionListByNativeQuery(String query, Class<D> dtoClass, Map<String, Object> params) {
+        return findResultList(query, dtoClass, params, QueryType.NATIVE, true);
+    }
+
+    /**
+     * Runs a native query and reads its rows straight from JDBC into primitive column arrays,
+     * without boxing values nor allocating an array per row
+     *
+     * @param query native SQL query with named parameters
+     * @param params Parameters {@code Map} with key matching parameters in the query. {@code Collection} values are expanded for {@code IN} lists.
+     * @param types column types in select order, or none to infer them from the result set metadata
+     * @return query result by column
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public ColumnBatch findColumnsByNativeQuery(String query, Map<String, Object> params, ColumnBatch.Type... types) {
+        long start = startTimer();
+        try {
+            ColumnBatch batch = getColumnsByNativeQuery(query, params, types);
+            record(query, QueryType.NATIVE, start, batch.getRowCount(), null);
+            return batch;
+        } catch(RuntimeException ex) {
+            record(query, QueryType.NATIVE, start, 0, ex);
+            throw ex;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <D> ProjectionMapper<D> getProjectionMapper(Class<D> dtoClass) {
+        ProjectionMapper<D> mapper = (ProjectionMapper<D>) projections.get(dtoClass);
+        if(mapper == null) {
+            mapper = new ProjectionMapper<D>(dtoClass);
+            ProjectionMapper<D> existing = (ProjectionMapper<D>) projections.putIfAbsent(dtoClass, mapper);
+            if(existing != null) {
+                mapper = existing;
+            }
+        }
+        return mapper;
+    }
+
+    /**
+     * Opens a forward-only cursor over a {@code @NamedQuery} or a JPQL query.
+     * <br><br>
+     * The cursor stays open after this method returns, so it must be called from
+     * inside a transaction and the returned stream must be closed by the caller.
+     * Rows are fetched {@link #PARAM_FETCH_SIZE} at a time, defaulting to {@link #getFetchSize()}.
+     *
+     * @param query {@code @NamedQuery} or JPQL query to be executed
+     * @param klazz {@code Class} type from expected entities
+     * @param params Parameters {@code Map} with key matching parameters in the query
+     * @return open stream over the result
+     * @see #forEachByQuery(java.lang.String, java.lang.Class, java.util.Map, org.easyj.orm.RowCallback)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Override
+    public <E> ResultStream<E> streamListByQuery(String query, Class<E> klazz, Map<String, Object> params) {
+        if(isQueryString(query)) {
+            return scrollByQuery(query, klazz, params, QueryType.JPQL);
+        }
+        return scrollByQuery(query, klazz, params, QueryType.NAMED);
+    }
+
+    /**
+     * Reads every entity matching the parameters through a forward-only cursor,
+     * handing each one to the callback. Memory use is independent of the result size.
+     *
+     * @param klazz {@code Class} type from expected entities
+     * @param params entity properties to filter by. Can be null
+     * @param callback callback invoked for every entity read
+     * @return number of entities read
+     */
+    @Override
+    public <E> int forEachAll(Class<E> klazz, Map<String, Object> params, RowCallback<E> callback) {
+        return forEach(streamAll(klazz, params), callback);
+    }
+
+    /**
+     * Reads every row returned by a {@code @NamedQuery} or a JPQL query through a
+     * forward-only cursor, handing each one to the callback. Memory use is
+     * independent of the result size.
+     *
+     * @param query {@code @NamedQuery} or JPQL query to be executed
+     * @param klazz {@code Class} type from expected entities
+     * @param params Parameters {@code Map} with key matching parameters in the query
+     * @param callback callback invoked for every row read
+     * @return number of rows read
+     */
+    @Override
+    public <E> int forEachByQuery(String query, Class<E> klazz, Map<String, Object> params, RowCallback<E> callback) {
+        return forEach(streamListByQuery(query, klazz, params), callback);
+    }
+
+    private <E> int forEach(ResultStream<E> stream, RowCallback<E> callback) {
+        int rows = 0;
+        try {
+            while(stream.hasNext()) {
+                callback.onRow(stream.next());
+                rows++;
+            }
+        } finally {
+            stream.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Finds a single entity in the database, bypassing any cache
+     * 
+     * @param klazz class of entity to be found
+     * @param primaryKey primary key value of the entity to be found
+     * @return entity found or null if none is found
+     */
+    protected abstract <E, ID> E find(Class<E> klazz, ID primaryKey);
+
+    protected abstract <E> E merge(E entity);
+
+    /**
+     * Inserts a new entity, making the instance passed in managed
+     *
+     * @param entity new entity
+     * @return the entity passed in
+     */
+    protected abstract <E> E persist(E entity);
+    
+    /**
+     * Merges entity into the current batch without flushing or releasing resources
+     *
+     * @return merged entity
+     */
+    protected abstract <E> E mergeInBatch(E entity);
+
+    /**
+     * Inserts a new entity into the current batch without flushing or releasing resources
+     *
+     * @return the entity passed in
+     */
+    protected abstract <E> E persistInBatch(E entity);
+
+    /**
+     * Tells whether an entity has never been persisted, so it can be inserted
+     * instead of merged. Entities whose state cannot be told apart are
+     * considered existing, so they are merged.
+     *
+     * @param entity entity to be saved
+     * @return true if the entity is new
+     */
+    protected abstract boolean isNew(Object entity);
+
+    /**
+     * Inserts a chunk of new entities without attaching them to the persistence context
+     *
+     * @param klazz entity {@code Class}
+     * @param entities new entities
+     * @return number of rows inserted
+     */
+    protected abstract <E> int insertChunk(Class<E> klazz, List<E> entities);
+
+    /**
+     * Flushes the current batch and clears the persistence context
+     */
+    protected abstract void flushBatch();
+
+    /**
+     * Releases resources held by the batch after the last chunk
+     */
+    protected abstract void endBatch();
+
+    protected abstract <E> void remove(E entity);
+    
+    protected abstract int executeUpdate(String query, Map<String, Object> params, QueryType queryType);
+
+    protected abstract <E> E getSingleResultByQuery(String query, Class<E> klazz, Map<String, Object> params, QueryType queryType);
+
+    protected abstract <E> List<E> getResultListByQuery(String query, Class<E> klazz, Map<String, Object> params, QueryType queryType);
+
+    /**
+     * Executes a projection query without entity hydration
+     *
+     * @param query {@code @NamedQuery} name, JPQL or native SQL query
+     * @param params query parameters
+     * @param queryType type of {@code query}
+     * @return raw rows: an {@code Object[]} per row for several selected values, the value itself for one
+     */
+    protected abstract List<?> getProjectionListByQuery(String query, Map<String, Object> params, QueryType queryType);
+
+    /**
+     * Executes a native query reading the result set into a {@link ColumnBatch}
+     *
+     * @param query native SQL query with named parameters
+     * @param params query parameters, paging included
+     * @param types column types, or an empty array to infer them
+     * @return query result by column
+     */
+    protected abstract ColumnBatch getColumnsByNativeQuery(String query, Map<String, Object> params, ColumnBatch.Type[] types);
+
+    /**
+     * Reads the value of a persistent attribute from an entity
+     *
+     * @param klazz entity {@code Class}
+     * @param entity entity to read from
+     * @param attribute persistent attribute name
+     * @return attribute value
+     */
+    protected abstract Object getAttributeValue(Class<?> klazz, Object entity, String attribute);
+
+    /**
+     * Writes the value of a persistent attribute to an entity
+     *
+     * @param klazz entity {@code Class}
+     * @param entity entity to write to
+     * @param attribute persistent attribute name
+     * @param value attribute value
+     */
+    protected abstract void setAttributeValue(Class<?> klazz, Object entity, String attribute, Object value);
+
+    /**
+     * Returns the name of the primary key attribute of an entity
+     *
+     * @param klazz entity {@code Class}
+     * @return primary key attribute name
+     * @throws IllegalArgumentException if the entity does not have a single id attribute
+     */
+    protected String getIdAttribute(Class<?> klazz) {
+        String id = findIdAttribute(klazz);
+        if(id == null) {
+            throw new IllegalArgumentException("Entity " + klazz.getName() + " does not have a single id attribute");
+        }
+        return id;
+    }
+
+    /**
+     * Returns the name of the primary key attribute of an entity, if it has a single one
+     *
+     * @param klazz entity {@code Class}
+     * @return primary key attribute name or null if the entity has a composite key
+     */
+    protected abstract String findIdAttribute(Class<?> klazz);
+
+    /**
+     * Returns the name of the {@code @Version} attribute of an entity, if it is numeric
+     *
+     * @param klazz entity {@code Class}
+     * @return version attribute name or null if the entity has no numeric version
+     */
+    protected abstract String getVersionAttribute(Class<?> klazz);
+
+    /**
+     * Returns the primary key of an entity
+     *
+     * @param entity entity to read from
+     * @return primary key or null if it has not been assigned yet
+     */
+    protected abstract Object getIdentifier(Object entity);
+
+    /**
+     * Returns the entity {@code Class} of an instance, which may differ from
+     * {@code entity.getClass()} for proxies
+     *
+     * @param entity entity instance
+     * @return entity {@code Class}
+     */
+    protected Class<?> getEntityClass(Object entity) {
+        return entity.getClass();
+    }
+
+    /**
+     * Tells whether entities read by the current call may be cached. They may only when the call
+     * runs outside a transaction or in a transaction of its own, so they are detached once it
+     * returns: entities of an enclosing transaction stay managed, and the caller's changes to
+     * them would reach the cache even if never saved or rolled back.
+     *
+     * @return true if entities read now can be shared through the caches
+     */
+    protected boolean isCacheableRead() {
+        if(!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return true;
+        }
+        try {
+            return TransactionAspectSupport.currentTransactionStatus().isNewTransaction();
+        } catch(NoTransactionException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes an entity from the {@link EntityCache}, if one is set and caches its class
+     *
+     * @param entity entity to be evicted
+     */
+    protected void evict(Object entity) {
+        EntityCache cache = getEntityCache();
+        if(cache != null && entity != null) {
+            Class<?> klazz = getEntityClass(entity);
+            if(cache.isCached(klazz)) {
+                Object id = getIdentifier(entity);
+                if(id != null) {
+                    evict(klazz, Collections.singleton(id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes entities of a class from the {@link EntityCache}, if one is set and caches the class.
+     * <br><br>
+     * Within a transaction they are removed again once it completes: until then a concurrent
+     * {@code findOne} can still read the rows being written and cache them.
+     *
+     * @param klazz entity {@code Class}
+     * @param ids primary keys of the entities, or null for every entity of the class
+     */
+    protected void evict(final Class<?> klazz, final Collection<?> ids) {
+        final EntityCache cache = getEntityCache();
+        if(cache == null || !cache.isCached(klazz)) {
+            return;
+        }
+        evictNow(cache, klazz, ids);
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    evictNow(cache, klazz, ids);
+                }
+            });
+        }
+    }
+
+    private static void evictNow(EntityCache cache, Class<?> klazz, Collection<?> ids) {
+        if(ids == null) {
+            cache.evictAll(klazz);
+            return;
+        }
+        for(Object id : ids) {
+            cache.evict(klazz, id);
+        }
+    }
+
+    /**
+     * Invalidates cached query results that read from the entity's class
+     *
+     * @param entity entity that was written
+     */
+    protected void invalidateQueries(Object entity) {
+        if(getResultCache() != null && entity != null) {
+            invalidateQueries(getEntityClass(entity));
+        }
+    }
+
+    /**
+     * Invalidates cached query results that read from an entity class, and again once the
+     * current transaction completes, as results read before its commit are stale
+     *
+     * @param klazz entity {@code Class} that was written
+     */
+    protected void invalidateQueries(final Class<?> klazz) {
+        final QueryResultCache cache = getResultCache();
+        if(cache == null) {
+            return;
+        }
+        cache.invalidate(klazz);
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidate(klazz);
+                }
+            });
+        }
+    }
+
+    /**
+     * Clears the {@link EntityCache} and the {@link QueryResultCache}, used when an
+     * update may have touched any entity. Both are cleared again once the current transaction completes.
+     */
+    protected void evictAll() {
+        final EntityCache cache = getEntityCache();
+        final QueryResultCache queries = getResultCache();
+        clear(cache, queries);
+        if((cache != null || queries != null) && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    clear(cache, queries);
+                }
+            });
+        }
+    }
+
+    private static void clear(EntityCache cache, QueryResultCache queries) {
+        if(cache != null) {
+            cache.evictAll();
+        }
+        if(queries != null) {
+            queries.invalidateAll();
+        }
+    }
+
+    protected abstract <E> ResultStream<E> scrollByQuery(String query, Class<E> klazz, Map<String, Object> params, QueryType queryType);
+
+    /**
+     * Returns the text of a query, looking up {@code @NamedQuery} definitions by name
+     *
+     * @param query {@code @NamedQuery} name, JPQL or native query
+     * @param queryType type of {@code query}
+     * @return query text
+     */
+    protected abstract String getQueryString(String query, QueryType queryType);
+
+    /**
+     * Tells a JPQL query from a {@code @NamedQuery} name without copying the query
+     */
+    protected static boolean isQueryString(String query) {
+        for(int i = 0, last = query.length() - 5; i <= last; i++) {
+            if(query.regionMatches(true, i, "from ", 0, 5)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells a JPQL update, insert or delete statement from a {@code @NamedQuery} name
+     */
+    protected static boolean isUpdateStatement(String query) {
+        return query.regionMatches(true, 0, "insert into ", 0, 12) || query.regionMatches(true, 0, "update ", 0, 7)
+                || query.regionMatches(true, 0, "delete from ", 0, 12);
+    }
+
+    /**
+     * Returns the default number of entities written between flushes in {@link #saveAll(java.lang.Iterable)}
+     *
+     * @return batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the default number of entities written between flushes in {@link #saveAll(java.lang.Iterable)}
+     *
+     * @param batchSize batch size
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the default number of rows fetched per round trip by the stream and {@code forEach} methods
+     *
+     * @return fetch size
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Sets the default number of rows fetched per round trip by the stream and {@code forEach} methods
+     *
+     * @param fetchSize fetch size
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Returns the maximum number of ids bound to a single {@code IN} list
+     *
+     * @return id chunk size
+     */
+    public int getIdChunkSize() {
+        return idChunkSize;
+    }
+
+    /**
+     * Sets the maximum number of ids bound to a single {@code IN} list
+     *
+     * @param idChunkSize id chunk size
+     */
+    public void setIdChunkSize(int idChunkSize) {
+        this.idChunkSize = idChunkSize;
+    }
+
+    /**
+     * Returns whether finders load entities read-only by default
+     *
+     * @return true if entities are loaded read-only
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Sets whether finders load entities read-only by default. Read-only entities
+     * keep no snapshot for dirty checking and their changes are never flushed,
+     * and queries do not flush pending changes before running.
+     * <br><br>
+     * Can be overridden per call with the {@link #PARAM_READ_ONLY} parameter.
+     *
+     * @param readOnly true to load entities read-only
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Returns the executor running the count of {@link #findPage(java.lang.Class, java.util.Map, int, int)}
+     * in parallel with the page query
+     *
+     * @return count executor or null if counts run on the calling thread
+     */
+    public ExecutorService getCountExecutor() {
+        return countExecutor;
+    }
+
+    /**
+     * Sets the executor running the count of {@link #findPage(java.lang.Class, java.util.Map, int, int)}
+     * in parallel with the page query. Counts run outside the caller's transaction,
+     * on a connection of their own.
+     *
+     * @param countExecutor count executor or null to count on the calling thread
+     */
+    public void setCountExecutor(ExecutorService countExecutor) {
+        this.countExecutor = countExecutor;
+    }
+
+    /**
+     * Returns the cache of generated finder queries
+     *
+     * @return finder query cache
+     */
+    public FinderQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Sets the cache of generated finder queries, allowing it to be shared or resized
+     *
+     * @param queryCache finder query cache
+     */
+    public void setQueryCache(FinderQueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Returns the cache consulted by {@link #findOne(java.lang.Class, java.lang.Object)}
+     *
+     * @return entity cache or null if entities are not cached
+     */
+    public EntityCache getEntityCache() {
+        return entityCache;
+    }
+
+    /**
+     * Sets the cache consulted by {@link #findOne(java.lang.Class, java.lang.Object)}.
+     * Entities saved or deleted through this {@code Dao} are evicted from it and
+     * updates by query clear it.
+     *
+     * @param entityCache entity cache or null to disable caching
+     */
+    public void setEntityCache(EntityCache entityCache) {
+        this.entityCache = entityCache;
+    }
+
+    /**
+     * Returns the cache of query results consulted by {@code findByQuery} and {@code findListByQuery}
+     *
+     * @return query result cache or null if results are not cached
+     */
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Sets the cache of query results consulted by {@code findByQuery} and {@code findListByQuery}
+     *
+     * @param resultCache query result cache or null to disable caching
+     */
+    public void setResultCache(QueryResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Returns the metrics receiving the timing of every database operation
+     *
+     * @return query metrics or null if operations are not measured
+     */
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics receiving the timing of every database operation
+     *
+     * @param metrics query metrics or null to stop measuring
+     */
+    public void setMetrics(QueryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the sorted names of the parameters to be bound, leaving out special parameters
+     *
+     * @param params parameters {@code Map}. Can be null
+     * @return sorted parameter names
+     */
+    protected List<String> paramNames(Map<String, Object> params) {
+        if(params == null || params.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<String>(params.size());
+        for(String key : params.keySet()) {
+            if(!RESERVED_PARAMS.contains(key)) {
+                names.add(key);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Returns a query string from the parameters given
+     * 
+     * @param params
+     * @return query string
+     */
+    protected String queryParams(Map<String, Object> params) {
+        return queryParams(paramNames(params));
+    }
+
+    /**
+     * Returns a query string matching each of the parameter names to the entity property with the same name
+     *
+     * @param paramNames parameter names
+     * @return query string
+     */
+    protected static String queryParams(List<String> paramNames) {
+        if(paramNames.isEmpty()) return "";
+        StringBuilder q = new StringBuilder();
+
+        for(String key : paramNames) {
+            if(q.length() > 0) {
+                q.append(" AND");
+            }
+            q.append(" c.").append(key).append(" = :").append(key);
+        }
+
+        return q.append(' ').toString();
+    }
+
+    /**
+     * Returns a {@code WHERE} clause from the parameter names, or an empty string if there are none
+     *
+     * @param paramNames parameter names
+     * @return where clause
+     */
+    protected static String where(List<String> paramNames) {
+        if(paramNames.isEmpty()) return "";
+        return " WHERE" + queryParams(paramNames);
+    }
+
+    /**
+     * Builds {@code UPDATE <entity> c SET c.<attribute> = :set_<attribute>, ... WHERE ...}, filtering
+     * either by primary key or by the parameters
+     */
+    private final class UpdateQueryBuilder implements FinderQueryCache.QueryBuilder {
+
+        private final List<String> attributes;
+        private final boolean byId;
+
+        UpdateQueryBuilder(List<String> attributes, boolean byId) {
+            this.attributes = attributes;
+            this.byId = byId;
+        }
+
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            StringBuilder query = new StringBuilder("UPDATE ").append(klazz.getName()).append(" c SET");
+            for(int i = 0; i < attributes.size(); i++) {
+                String attribute = attributes.get(i);
+                query.append(i == 0 ? " c." : ", c.").append(attribute).append(" = :").append(PARAM_SET_PREFIX).append(attribute);
+            }
+            String version = getVersionAttribute(klazz);
+            if(version != null && !attributes.contains(version)) {
+                query.append(", c.").append(version).append(" = c.").append(version).append(" + 1");
+            }
+            if(byId) {
+                return query.append(" WHERE c.").append(getIdAttribute(klazz)).append(" = :").append(PARAM_ID).toString();
+            }
+            return query.append(where(paramNames)).toString();
+        }
+
+    }
+
+    /**
+     * Builds {@code SELECT DISTINCT c FROM <entity> c LEFT JOIN FETCH c.<a> f0 LEFT JOIN FETCH f0.<b> ...
+     * WHERE c.<id> IN :ids} for a {@link FetchPlan} path
+     */
+    private final class FetchQueryBuilder implements FinderQueryCache.QueryBuilder {
+
+        private final String[] path;
+
+        FetchQueryBuilder(String path) {
+            this.path = path.split("\\.");
+        }
+
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            StringBuilder query = new StringBuilder("SELECT DISTINCT c FROM ").append(klazz.getName()).append(" c");
+            String alias = "c";
+            for(int i = 0; i < path.length; i++) {
+                query.append(" LEFT JOIN FETCH ").append(alias).append('.').append(path[i]);
+                alias = "f" + i;
+                if(i < path.length - 1) {
+                    query.append(' ').append(alias);
+                }
+            }
+            return query.append(" WHERE c.").append(getIdAttribute(klazz)).append(" IN :").append(PARAM_IDS).toString();
+        }
+
+    }
+
+    private static final class AggregateQueryBuilder implements FinderQueryCache.QueryBuilder {
+
+        private final Aggregate function;
+        private final String attribute;
+        private final String groupBy;
+
+        AggregateQueryBuilder(Aggregate function, String attribute, String groupBy) {
+            this.function = function;
+            this.attribute = attribute;
+            this.groupBy = groupBy;
+        }
+
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            String aggregate = function + "(c." + attribute + ")";
+            if(groupBy == null) {
+                return "SELECT " + aggregate + " FROM " + klazz.getName() + " c" + where(paramNames);
+            }
+            return "SELECT c." + groupBy + ", " + aggregate + " FROM " + klazz.getName() + " c" + where(paramNames)
+                    + " GROUP BY c." + groupBy + " ORDER BY c." + groupBy;
+        }
+
+    }
+
+    private static final class KeysetQueryBuilder implements FinderQueryCache.QueryBuilder {
+
+        private final SortKey sortKey;
+        private final boolean seek;
+
+        KeysetQueryBuilder(SortKey sortKey, boolean seek) {
+            this.sortKey = sortKey;
+            this.seek = seek;
+        }
+
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            String where = queryParams(paramNames);
+            if(seek) {
+                where += (where.length() > 0 ? "AND" : "") + " c." + sortKey.getAttribute() + (sortKey.isAscending() ? " > :" : " < :") + PARAM_LAST_KEY + " ";
+            }
+            return "FROM " + klazz.getName() + " c" + (where.length() > 0 ? " WHERE" + where : " ") + "ORDER BY c." + sortKey;
         }
 
-        return q.substring(0, q.length() - 4);
     }
 
-}
\ No newline at end of file
+}
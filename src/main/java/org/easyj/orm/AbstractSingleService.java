@@ -16,8 +16,11 @@
 
 package org.easyj.orm;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import org.easyj.orm.SingleDao.Aggregate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +48,31 @@ public abstract class AbstractSingleService implements SingleService {
         return getDao().save(entity);
     }
 
+    @Override
+    public <E> E insert(E entity) {
+        return getDao().insert(entity);
+    }
+
+    @Override
+    public <E> List<BatchResult> saveAll(Iterable<E> entities) {
+        return getDao().saveAll(entities);
+    }
+
+    @Override
+    public <E> List<BatchResult> saveAll(Iterator<E> entities, int chunkSize) {
+        return getDao().saveAll(entities, chunkSize);
+    }
+
+    @Override
+    public <E> List<BatchResult> bulkInsert(Class<E> klazz, Iterable<E> entities) {
+        return getDao().bulkInsert(klazz, entities);
+    }
+
+    @Override
+    public <E> List<BatchResult> bulkInsert(Class<E> klazz, Iterator<E> entities, int chunkSize) {
+        return getDao().bulkInsert(klazz, entities, chunkSize);
+    }
+
     @Override
     public <E> E delete(E entity) {
         return getDao().delete(entity);
@@ -60,6 +88,16 @@ public abstract class AbstractSingleService implements SingleService {
         return getDao().findOne(klazz, param);
     }
 
+    @Override
+    public <E, ID> E findOne(Class<E> klazz, ID id, FetchPlan fetchPlan) {
+        return getDao().findOne(klazz, id, fetchPlan);
+    }
+
+    @Override
+    public <E, ID> Map<ID, E> findAllById(Class<E> klazz, Collection<ID> ids) {
+        return getDao().findAllById(klazz, ids);
+    }
+
     @Override
     public <E> List<E> findAll(Class<E> klazz) {
         return getDao().findAll(klazz);
@@ -70,11 +108,51 @@ public abstract class AbstractSingleService implements SingleService {
         return getDao().findAll(klazz, params);
     }
 
+    @Override
+    public <E> List<E> findAll(Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan) {
+        return getDao().findAll(klazz, params, fetchPlan);
+    }
+
+    @Override
+    public <E> KeysetPage<E> findPage(Class<E> klazz, Map<String, Object> filters, SortKey sortKey, Object lastSeenKey, int size) {
+        return getDao().findPage(klazz, filters, sortKey, lastSeenKey, size);
+    }
+
+    @Override
+    public <E> Page<E> findPage(Class<E> klazz, Map<String, Object> filters, int page, int size) {
+        return getDao().findPage(klazz, filters, page, size);
+    }
+
+    @Override
+    public <E> long count(Class<E> klazz, Map<String, Object> filters) {
+        return getDao().count(klazz, filters);
+    }
+
+    @Override
+    public <E> boolean exists(Class<E> klazz, Map<String, Object> filters) {
+        return getDao().exists(klazz, filters);
+    }
+
+    @Override
+    public <E> Object aggregate(Class<E> klazz, Aggregate function, String attribute, Map<String, Object> filters) {
+        return getDao().aggregate(klazz, function, attribute, filters);
+    }
+
+    @Override
+    public <E> Map<Object, Object> aggregate(Class<E> klazz, Aggregate function, String attribute, Map<String, Object> filters, String groupBy) {
+        return getDao().aggregate(klazz, function, attribute, filters, groupBy);
+    }
+
     @Override
     public <E> E findByQuery(String query, Class<E> klazz, Map<String, Object> params) {
         return getDao().findByQuery(query, klazz, params);
     }
 
+    @Override
+    public <E> E findByQuery(String query, Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan) {
+        return getDao().findByQuery(query, klazz, params, fetchPlan);
+    }
+
     @Override
     public <E> E findByNativeQuery(String query, Class<E> klazz, Map<String, Object> params) {
         return getDao().findByNativeQuery(query, klazz, params);
@@ -85,9 +163,49 @@ public abstract class AbstractSingleService implements SingleService {
         return getDao().findListByQuery(query, klazz, params);
     }
 
+    @Override
+    public <E> List<E> findListByQuery(String query, Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan) {
+        return getDao().findListByQuery(query, klazz, params, fetchPlan);
+    }
+
     @Override
     public <E> List<E> findListByNativeQuery(String query, Class<E> klazz, Map<String, Object> params) {
         return getDao().findListByNativeQuery(query, klazz, params);
     }
 
+    @Override
+    public <E> QueryHandle<E> prepare(String query, Class<E> klazz) {
+        return getDao().prepare(query, klazz);
+    }
+
+    @Override
+    public <E> QueryHandle<E> prepareNative(String query, Class<E> klazz) {
+        return getDao().prepareNative(query, klazz);
+    }
+
+    @Override
+    public <E> E findByQuery(QueryHandle<E> handle, Object... values) {
+        return getDao().findByQuery(handle, values);
+    }
+
+    @Override
+    public <E> List<E> findListByQuery(QueryHandle<E> handle, Object... values) {
+        return getDao().findListByQuery(handle, values);
+    }
+
+    @Override
+    public <D> List<D> findProjectionList(String query, Class<D> dtoClass, Map<String, Object> params) {
+        return getDao().findProjectionList(query, dtoClass, params);
+    }
+
+    @Override
+    public <D> List<D> findProjectionListByNativeQuery(String query, Class<D> dtoClass, Map<String, Object> params) {
+        return getDao().findProjectionListByNativeQuery(query, dtoClass, params);
+    }
+
+    @Override
+    public ColumnBatch findColumnsByNativeQuery(String query, Map<String, Object> params, ColumnBatch.Type... types) {
+        return getDao().findColumnsByNativeQuery(query, params, types);
+    }
+
 }
@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import org.easyj.orm.SingleDao.Aggregate;
+
+/**
+ * Asynchronous counterpart of {@link SingleService}
+ * <br><br>
+ * Every method runs on a background thread, in its own transaction and
+ * persistence context, and returns immediately.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public interface AsyncSingleService {
+
+    public <E> Future<E> save(E entity);
+    public <E> Future<E> insert(E entity);
+    public <E> Future<List<BatchResult>> saveAll(Iterable<E> entities);
+    public <E> Future<List<BatchResult>> saveAll(Iterator<E> entities, int chunkSize);
+    public <E> Future<List<BatchResult>> bulkInsert(Class<E> klazz, Iterable<E> entities);
+    public <E> Future<List<BatchResult>> bulkInsert(Class<E> klazz, Iterator<E> entities, int chunkSize);
+    public <E> Future<E> delete(E entity);
+    public <E, ID> Future<E> delete(Class<E> klazz, ID primaryKey);
+    public <E, ID> Future<E> findOne(Class<E> klazz, ID id);
+    public <E, ID> Future<E> findOne(Class<E> klazz, ID id, FetchPlan fetchPlan);
+    public <E, ID> Future<Map<ID, E>> findAllById(Class<E> klazz, Collection<ID> ids);
+    public <E> Future<List<E>> findAll(Class<E> klazz);
+    public <E> Future<List<E>> findAll(Class<E> klazz, Map<String, Object> params);
+    public <E> Future<List<E>> findAll(Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan);
+    public <E> Future<KeysetPage<E>> findPage(Class<E> klazz, Map<String, Object> filters, SortKey sortKey, Object lastSeenKey, int size);
+    public <E> Future<Page<E>> findPage(Class<E> klazz, Map<String, Object> filters, int page, int size);
+
+    public <E> Future<Long> count(Class<E> klazz, Map<String, Object> filters);
+    public <E> Future<Boolean> exists(Class<E> klazz, Map<String, Object> filters);
+    public <E> Future<Object> aggregate(Class<E> klazz, Aggregate function, String attribute, Map<String, Object> filters);
+    public <E> Future<Map<Object, Object>> aggregate(Class<E> klazz, Aggregate function, String attribute, Map<String, Object> filters, String groupBy);
+    
+    public <E> Future<E> findByQuery(String query, Class<E> klazz, Map<String, Object> params);
+    public <E> Future<E> findByQuery(String query, Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan);
+    public <E> Future<E> findByNativeQuery(String query, Class<E> klazz, Map<String, Object> params);
+    
+    public <E> Future<List<E>> findListByQuery(String query, Class<E> klazz, Map<String, Object> params);
+    public <E> Future<List<E>> findListByQuery(String query, Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan);
+    public <E> Future<List<E>> findListByNativeQuery(String query, Class<E> klazz, Map<String, Object> params);
+
+    public <E> Future<E> findByQuery(QueryHandle<E> handle, Object... values);
+    public <E> Future<List<E>> findListByQuery(QueryHandle<E> handle, Object... values);
+
+    public <D> Future<List<D>> findProjectionList(String query, Class<D> dtoClass, Map<String, Object> params);
+    public <D> Future<List<D>> findProjectionListByNativeQuery(String query, Class<D> dtoClass, Map<String, Object> params);
+    public Future<ColumnBatch> findColumnsByNativeQuery(String query, Map<String, Object> params, ColumnBatch.Type... types);
+}
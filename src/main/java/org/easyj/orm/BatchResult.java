@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+/**
+ * Result of a single chunk written by a batched operation such as
+ * {@link SingleDao#saveAll(java.util.Iterator, int)}
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class BatchResult {
+
+    private final int chunk;
+    private final int rows;
+    private final long elapsedNanos;
+
+    public BatchResult(int chunk, int rows, long elapsedNanos) {
+        this.chunk = chunk;
+        this.rows = rows;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return zero based index of this chunk
+     */
+    public int getChunk() {
+        return chunk;
+    }
+
+    /**
+     * @return number of rows written in this chunk
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return time spent writing and flushing this chunk, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return throughput of this chunk in rows per second
+     */
+    public double getRowsPerSecond() {
+        if(elapsedNanos <= 0) {
+            return 0;
+        }
+        return rows * 1000000000d / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult[chunk=" + chunk + ", rows=" + rows + ", elapsedNanos=" + elapsedNanos + "]";
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Columnar result of a native query, with numeric columns held in primitive arrays
+ * <br><br>
+ * Each column is stored in an array of its {@link Type}: {@code int[]}, {@code long[]} or
+ * {@code double[]}, timestamps as epoch milliseconds in a {@code long[]}, and any other value
+ * in an {@code Object[]}. Reading large numeric results this way allocates one array per
+ * column instead of one {@code Object[]} and one boxed value per row and column.
+ * <br><br>
+ * Arrays returned by the getters hold exactly {@link #getRowCount()} values once the batch
+ * is filled. {@code SQL NULL} is stored as 0 in primitive columns and reported by {@link #isNull(int, int)}.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class ColumnBatch {
+
+    public static enum Type {INT, LONG, DOUBLE, TIMESTAMP, OBJECT};
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final String[] names;
+    private final Type[] types;
+    private final Object[] columns;
+    private final BitSet[] nulls;
+    private int capacity;
+    private int rows;
+
+    public ColumnBatch(String[] names, Type[] types) {
+        this(names, types, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param names column names
+     * @param types column types, in the same order as the names
+     * @param capacity expected number of rows
+     */
+    public ColumnBatch(String[] names, Type[] types, int capacity) {
+        if(names.length != types.length) {
+            throw new IllegalArgumentException("Expected " + names.length + " column types but got " + types.length);
+        }
+        this.names = names.clone();
+        this.types = types.clone();
+        this.capacity = Math.max(1, capacity);
+        this.columns = new Object[types.length];
+        this.nulls = new BitSet[types.length];
+        for(int i = 0; i < types.length; i++) {
+            columns[i] = newColumn(types[i], this.capacity);
+            nulls[i] = new BitSet();
+        }
+    }
+
+    /**
+     * Appends an empty row, growing the columns when needed
+     *
+     * @return index of the new row
+     */
+    public int addRow() {
+        if(rows == capacity) {
+            resize(capacity + (capacity >> 1) + 1);
+        }
+        return rows++;
+    }
+
+    /**
+     * Shrinks the columns to the number of rows
+     */
+    public void trim() {
+        if(rows < capacity) {
+            resize(rows);
+        }
+    }
+
+    public void setInt(int column, int row, int value) {
+        ((int[]) columns[column])[row] = value;
+    }
+
+    public void setLong(int column, int row, long value) {
+        ((long[]) columns[column])[row] = value;
+    }
+
+    public void setDouble(int column, int row, double value) {
+        ((double[]) columns[column])[row] = value;
+    }
+
+    public void setObject(int column, int row, Object value) {
+        ((Object[]) columns[column])[row] = value;
+    }
+
+    public void setNull(int column, int row) {
+        nulls[column].set(row);
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    public Type getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * @param name column name, case insensitive
+     * @return column index or -1 if there is no such column
+     */
+    public int getColumnIndex(String name) {
+        for(int i = 0; i < names.length; i++) {
+            if(names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isNull(int column, int row) {
+        return nulls[column].get(row);
+    }
+
+    /**
+     * @param column index of an {@link Type#INT} column
+     * @return column values
+     */
+    public int[] getInts(int column) {
+        return (int[]) column(column, Type.INT);
+    }
+
+    /**
+     * @param column index of a {@link Type#LONG} or {@link Type#TIMESTAMP} column
+     * @return column values, timestamps as epoch milliseconds
+     */
+    public long[] getLongs(int column) {
+        if(types[column] == Type.TIMESTAMP) {
+            return (long[]) columns[column];
+        }
+        return (long[]) column(column, Type.LONG);
+    }
+
+    /**
+     * @param column index of a {@link Type#DOUBLE} column
+     * @return column values
+     */
+    public double[] getDoubles(int column) {
+        return (double[]) column(column, Type.DOUBLE);
+    }
+
+    /**
+     * @param column index of an {@link Type#OBJECT} column
+     * @return column values
+     */
+    public Object[] getObjects(int column) {
+        return (Object[]) column(column, Type.OBJECT);
+    }
+
+    private Object column(int column, Type type) {
+        if(types[column] != type) {
+            throw new IllegalArgumentException("Column " + names[column] + " is " + types[column] + ", not " + type);
+        }
+        return columns[column];
+    }
+
+    private void resize(int newCapacity) {
+        for(int i = 0; i < columns.length; i++) {
+            Object column = columns[i];
+            if(column instanceof int[]) {
+                columns[i] = Arrays.copyOf((int[]) column, newCapacity);
+            } else if(column instanceof long[]) {
+                columns[i] = Arrays.copyOf((long[]) column, newCapacity);
+            } else if(column instanceof double[]) {
+                columns[i] = Arrays.copyOf((double[]) column, newCapacity);
+            } else {
+                columns[i] = Arrays.copyOf((Object[]) column, newCapacity);
+            }
+        }
+        capacity = newCapacity;
+    }
+
+    private static Object newColumn(Type type, int capacity) {
+        switch(type) {
+            case INT:
+                return new int[capacity];
+            case LONG:
+            case TIMESTAMP:
+                return new long[capacity];
+            case DOUBLE:
+                return new double[capacity];
+            default:
+                return new Object[capacity];
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+/**
+ * Cache of entities by primary key used by {@link AbstractSingleDao#findOne(java.lang.Class, java.lang.Object)}
+ * <br><br>
+ * Only entity classes configured in the cache are cached. Cached instances are shared
+ * between callers and detached from any persistence context, so the cache is meant for
+ * read-mostly entities whose state is fully loaded. Entities loaded by a call that joins an
+ * enclosing transaction are still managed by it and are not cached.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ * @see LruEntityCache
+ */
+public interface EntityCache {
+
+    /**
+     * @param klazz entity {@code Class}
+     * @return true if entities of the class are cached
+     */
+    public boolean isCached(Class<?> klazz);
+
+    /**
+     * @param klazz entity {@code Class}
+     * @param id primary key
+     * @return cached entity or null if not cached
+     */
+    public <E> E get(Class<E> klazz, Object id);
+
+    /**
+     * Returns the current generation of the class, to be passed to
+     * {@link #put(java.lang.Class, java.lang.Object, java.lang.Object, long, long)}
+     * so entities read while an eviction happens are not cached
+     *
+     * @param klazz entity {@code Class}
+     * @return generation, changed by every eviction of the class
+     */
+    public long getGeneration(Class<?> klazz);
+
+    /**
+     * Caches an entity, unless an entity of the class was evicted since {@code generation} was read
+     *
+     * @param klazz entity {@code Class}
+     * @param id primary key
+     * @param entity entity loaded from the database
+     * @param generation generation read before the entity was loaded
+     * @param loadTime time spent loading the entity, in nanoseconds
+     */
+    public void put(Class<?> klazz, Object id, Object entity, long generation, long loadTime);
+
+    public void evict(Class<?> klazz, Object id);
+
+    public void evictAll(Class<?> klazz);
+
+    public void evictAll();
+
+    /**
+     * @return statistics of all cached classes
+     */
+    public CacheStats getStats();
+
+    /**
+     * @param klazz entity {@code Class}
+     * @return statistics of the class
+     */
+    public CacheStats getStats(Class<?> klazz);
+
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Associations to be loaded along with the entities returned by a finder
+ * <br><br>
+ * Each path is a chain of association attributes from the entity, as in {@code "orders"} or
+ * {@code "orders.items"}. Every path is loaded with one extra query for all entities found,
+ * instead of one lazy load per entity, so the associations can be read after the
+ * {@code EntityManager} is closed. Paths already covered by a longer path are dropped, and
+ * paths through more than one collection should be avoided, as they multiply the rows read.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class FetchPlan {
+
+    private final List<String> paths;
+
+    public FetchPlan(String... paths) {
+        List<String> found = new ArrayList<String>();
+        for(String path : paths) {
+            if(path == null || path.trim().length() == 0 || path.trim().startsWith(".") || path.trim().endsWith(".")
+                    || path.indexOf("..") > -1) {
+                throw new IllegalArgumentException("FetchPlan path must be a chain of attribute names: [" + path + "]");
+            }
+            found.add(path.trim());
+        }
+        List<String> kept = new ArrayList<String>();
+        for(String path : found) {
+            if(!kept.contains(path) && !isCovered(path, found)) {
+                kept.add(path);
+            }
+        }
+        this.paths = Collections.unmodifiableList(kept);
+    }
+
+    public static FetchPlan of(String... paths) {
+        return new FetchPlan(paths);
+    }
+
+    /**
+     * @return association paths to be loaded, in order
+     */
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    private static boolean isCovered(String path, List<String> paths) {
+        for(String other : paths) {
+            if(other.startsWith(path + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "FetchPlan" + paths;
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of query strings generated by dynamic finders such as {@code findAll(Class, Map)}
+ * <br><br>
+ * Queries are keyed by entity {@code Class}, operation and the sorted parameter names,
+ * so the same finder always produces the very same string. Besides skipping the string
+ * building, this keeps the persistence provider's own query plan cache free of
+ * near-duplicate entries.
+ * <br><br>
+ * Once {@link #getMaxSize()} queries are cached new ones are still built but no longer stored.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class FinderQueryCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    /**
+     * Builds the query string on a cache miss
+     */
+    public static interface QueryBuilder {
+
+        /**
+         * @param klazz entity {@code Class}
+         * @param paramNames sorted parameter names
+         * @return query string
+         */
+        public String build(Class<?> klazz, List<String> paramNames);
+
+    }
+
+    private final ConcurrentMap<Key, String> queries = new ConcurrentHashMap<Key, String>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile int maxSize;
+
+    public FinderQueryCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public FinderQueryCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached query, building and caching it on a miss
+     *
+     * @param klazz entity {@code Class}
+     * @param operation name of the finder operation, distinguishes queries with the same parameters
+     * @param paramNames sorted parameter names
+     * @param builder builds the query on a miss
+     * @return query string
+     */
+    public String get(Class<?> klazz, String operation, List<String> paramNames, QueryBuilder builder) {
+        Key key = new Key(klazz, operation, paramNames);
+        String query = queries.get(key);
+        if(query != null) {
+            hits.incrementAndGet();
+            return query;
+        }
+        misses.incrementAndGet();
+        query = builder.build(klazz, paramNames);
+        if(queries.size() < maxSize) {
+            queries.putIfAbsent(key, query);
+        }
+        return query;
+    }
+
+    /**
+     * @return number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups that had to build the query
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of cached queries
+     */
+    public int getSize() {
+        return queries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Removes all cached queries and resets the counters
+     */
+    public void clear() {
+        queries.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static final class Key {
+
+        private final Class<?> klazz;
+        private final String operation;
+        private final List<String> paramNames;
+        private final int hash;
+
+        Key(Class<?> klazz, String operation, List<String> paramNames) {
+            this.klazz = klazz;
+            this.operation = operation;
+            this.paramNames = paramNames;
+            this.hash = 31 * (31 * klazz.hashCode() + operation.hashCode()) + paramNames.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return klazz == other.klazz && operation.equals(other.operation) && paramNames.equals(other.paramNames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.easyj.orm.SingleDao.QueryType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link QueryMetrics} that keeps counters and a latency histogram per query in memory
+ * and logs executions slower than a threshold
+ * <br><br>
+ * Queries are keyed by name, which is the query string itself for ad-hoc queries. To keep
+ * memory bounded when such strings are built with inlined values, at most {@link #getMaxQueries()}
+ * distinct queries are tracked; executions of any further query are added to the
+ * {@link #OTHER} statistics of its query type. Slow executions are still logged with their own name.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class InMemoryQueryMetrics implements QueryMetrics {
+
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 1000;
+
+    public static final int DEFAULT_MAX_QUERIES = 1000;
+
+    /**
+     * Name of the statistics that gather the queries recorded after {@link #getMaxQueries()} was reached
+     */
+    public static final String OTHER = "other";
+
+    private static final int BUCKETS = 40;
+
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<Key, Recorder> recorders = new ConcurrentHashMap<Key, Recorder>();
+
+    private volatile long slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_QUERY_MILLIS);
+
+    private volatile int maxQueries = DEFAULT_MAX_QUERIES;
+
+    @Override
+    public void record(String name, QueryType queryType, long elapsedNanos, int rows, Throwable error) {
+        Key key = new Key(name, queryType);
+        Recorder recorder = recorders.get(key);
+        if(recorder == null && recorders.size() >= maxQueries) {
+            key = new Key(OTHER, queryType);
+            recorder = recorders.get(key);
+        }
+        if(recorder == null) {
+            recorder = new Recorder();
+            Recorder existing = recorders.putIfAbsent(key, recorder);
+            if(existing != null) {
+                recorder = existing;
+            }
+        }
+        recorder.record(elapsedNanos, rows, error != null);
+
+        if(slowQueryNanos > 0 && elapsedNanos >= slowQueryNanos && logger.isWarnEnabled()) {
+            logger.warn("Slow query: {} ms, {} rows, {}[{}]", new Object[] {
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), rows, queryType == null ? "" : queryType + " ", name});
+        }
+    }
+
+    /**
+     * @return statistics of every query recorded so far
+     */
+    public List<QueryStatistics> getStatistics() {
+        List<QueryStatistics> stats = new ArrayList<QueryStatistics>(recorders.size());
+        for(Key key : recorders.keySet()) {
+            stats.add(getStatistics(key.name, key.queryType));
+        }
+        return stats;
+    }
+
+    /**
+     * @param name {@code @NamedQuery} name, query string or entity operation
+     * @param queryType query type, or null for entity operations
+     * @return statistics of the query or null if it was never recorded
+     */
+    public QueryStatistics getStatistics(String name, QueryType queryType) {
+        Recorder recorder = recorders.get(new Key(name, queryType));
+        return recorder == null ? null : recorder.snapshot(name, queryType);
+    }
+
+    /**
+     * Discards every statistic recorded so far
+     */
+    public void reset() {
+        recorders.clear();
+    }
+
+    /**
+     * @return maximum number of distinct queries tracked before the rest are gathered under {@link #OTHER}
+     */
+    public int getMaxQueries() {
+        return maxQueries;
+    }
+
+    /**
+     * The limit is approximate: queries recorded concurrently when it is reached may still get their own statistics
+     *
+     * @param maxQueries maximum number of distinct queries tracked before the rest are gathered under {@link #OTHER}
+     */
+    public void setMaxQueries(int maxQueries) {
+        this.maxQueries = maxQueries;
+    }
+
+    /**
+     * @return threshold above which executions are logged as slow, in milliseconds
+     */
+    public long getSlowQueryMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowQueryNanos);
+    }
+
+    /**
+     * @param slowQueryMillis threshold above which executions are logged as slow, in milliseconds. 0 disables the log
+     */
+    public void setSlowQueryMillis(long slowQueryMillis) {
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+    }
+
+    private static final class Key {
+
+        private final String name;
+        private final QueryType queryType;
+
+        Key(String name, QueryType queryType) {
+            this.name = name;
+            this.queryType = queryType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return queryType == other.queryType && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + (queryType == null ? 0 : queryType.hashCode());
+        }
+
+    }
+
+    private static final class Recorder {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long elapsedNanos, int rowCount, boolean error) {
+            count.incrementAndGet();
+            if(error) {
+                errors.incrementAndGet();
+            }
+            rows.addAndGet(rowCount);
+            totalNanos.addAndGet(elapsedNanos);
+
+            long max = maxNanos.get();
+            while(elapsedNanos > max && !maxNanos.compareAndSet(max, elapsedNanos)) {
+                max = maxNanos.get();
+            }
+
+            long micros = elapsedNanos / 1000;
+            int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        }
+
+        QueryStatistics snapshot(String name, QueryType queryType) {
+            long[] copy = new long[BUCKETS];
+            for(int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+            }
+            return new QueryStatistics(name, queryType, count.get(), errors.get(), rows.get(),
+                    totalNanos.get(), maxNanos.get(), copy);
+        }
+
+    }
+
+}
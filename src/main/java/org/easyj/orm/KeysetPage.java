@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.util.List;
+
+/**
+ * Page of entities loaded by keyset (seek) pagination
+ * <br><br>
+ * {@link #getNextKey()} is the cursor to pass as {@code lastSeenKey} to load the following page.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class KeysetPage<E> {
+
+    private final List<E> content;
+    private final Object nextKey;
+    private final boolean hasNext;
+
+    public KeysetPage(List<E> content, Object nextKey, boolean hasNext) {
+        this.content = content;
+        this.nextKey = nextKey;
+        this.hasNext = hasNext;
+    }
+
+    /**
+     * @return entities in this page
+     */
+    public List<E> getContent() {
+        return content;
+    }
+
+    /**
+     * @return sort key value of the last entity in this page, or null if the page is empty
+     */
+    public Object getNextKey() {
+        return nextKey;
+    }
+
+    /**
+     * @return true if there are more entities after this page
+     */
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * @return number of entities in this page
+     */
+    public int getSize() {
+        return content.size();
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EntityCache} that keeps one size-bounded LRU region per entity class,
+ * with an optional time to live for its entries
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class LruEntityCache implements EntityCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final ConcurrentMap<Class<?>, Region> regions = new ConcurrentHashMap<Class<?>, Region>();
+
+    private int defaultMaxSize = DEFAULT_MAX_SIZE;
+    private long defaultTtlMillis = 0;
+
+    /**
+     * Caches entities of a class
+     *
+     * @param klazz entity {@code Class}
+     * @param maxSize maximum number of entities kept
+     * @param ttlMillis time an entity is kept after loaded, in milliseconds. 0 keeps entities until evicted
+     */
+    public void setRegion(Class<?> klazz, int maxSize, long ttlMillis) {
+        regions.put(klazz, new Region(maxSize, ttlMillis));
+    }
+
+    /**
+     * Caches entities of the classes using the default size and time to live
+     *
+     * @param classes entity classes
+     */
+    public void setCachedClasses(Collection<Class<?>> classes) {
+        for(Class<?> klazz : classes) {
+            setRegion(klazz, defaultMaxSize, defaultTtlMillis);
+        }
+    }
+
+    public void setDefaultMaxSize(int defaultMaxSize) {
+        this.defaultMaxSize = defaultMaxSize;
+    }
+
+    public void setDefaultTtlMillis(long defaultTtlMillis) {
+        this.defaultTtlMillis = defaultTtlMillis;
+    }
+
+    @Override
+    public boolean isCached(Class<?> klazz) {
+        return regions.containsKey(klazz);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E> E get(Class<E> klazz, Object id) {
+        Region region = regions.get(klazz);
+        return region == null ? null : (E) region.get(id);
+    }
+
+    @Override
+    public long getGeneration(Class<?> klazz) {
+        Region region = regions.get(klazz);
+        return region == null ? 0 : region.getGeneration();
+    }
+
+    @Override
+    public void put(Class<?> klazz, Object id, Object entity, long generation, long loadTime) {
+        Region region = regions.get(klazz);
+        if(region != null) {
+            region.put(id, entity, generation, loadTime);
+        }
+    }
+
+    @Override
+    public void evict(Class<?> klazz, Object id) {
+        Region region = regions.get(klazz);
+        if(region != null) {
+            region.remove(id);
+        }
+    }
+
+    @Override
+    public void evictAll(Class<?> klazz) {
+        Region region = regions.get(klazz);
+        if(region != null) {
+            region.clear();
+        }
+    }
+
+    @Override
+    public void evictAll() {
+        for(Region region : regions.values()) {
+            region.clear();
+        }
+    }
+
+    @Override
+    public CacheStats getStats() {
+        CacheStats stats = new CacheStats(0, 0, 0, 0, 0);
+        for(Region region : regions.values()) {
+            stats = stats.plus(region.stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public CacheStats getStats(Class<?> klazz) {
+        Region region = regions.get(klazz);
+        return region == null ? new CacheStats(0, 0, 0, 0, 0) : region.stats();
+    }
+
+    private static class Region {
+
+        private final long ttlNanos;
+        private final Map<Object, CacheEntry> entries;
+
+        private long generation;
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long loads;
+        private long loadTime;
+
+        Region(final int maxSize, long ttlMillis) {
+            this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+            this.entries = new LinkedHashMap<Object, CacheEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, CacheEntry> eldest) {
+                    if(size() > maxSize) {
+                        evictions++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized Object get(Object id) {
+            CacheEntry entry = entries.get(id);
+            if(entry != null && ttlNanos > 0 && System.nanoTime() - entry.loaded > ttlNanos) {
+                entries.remove(id);
+                evictions++;
+                entry = null;
+            }
+            if(entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return entry.value;
+        }
+
+        synchronized long getGeneration() {
+            return generation;
+        }
+
+        synchronized void put(Object id, Object value, long loadGeneration, long loadNanos) {
+            if(loadGeneration != generation) {
+                return;
+            }
+            entries.put(id, new CacheEntry(value));
+            loads++;
+            loadTime += loadNanos;
+        }
+
+        synchronized void remove(Object id) {
+            generation++;
+            entries.remove(id);
+        }
+
+        synchronized void clear() {
+            generation++;
+            entries.clear();
+        }
+
+        synchronized CacheStats stats() {
+            return new CacheStats(hits, misses, evictions, loads, loadTime);
+        }
+
+    }
+
+    private static class CacheEntry {
+
+        private final Object value;
+        private final long loaded = System.nanoTime();
+
+        CacheEntry(Object value) {
+            this.value = value;
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.util.List;
+
+/**
+ * Page of entities loaded by offset pagination, along with the total number of matching entities
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class Page<E> {
+
+    private final List<E> content;
+    private final int page;
+    private final int pageSize;
+    private final long totalElements;
+
+    public Page(List<E> content, int page, int pageSize, long totalElements) {
+        this.content = content;
+        this.page = page;
+        this.pageSize = pageSize;
+        this.totalElements = totalElements;
+    }
+
+    /**
+     * @return entities in this page
+     */
+    public List<E> getContent() {
+        return content;
+    }
+
+    /**
+     * @return zero based index of this page
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * @return maximum number of entities per page
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return number of entities in this page
+     */
+    public int getSize() {
+        return content.size();
+    }
+
+    /**
+     * @return number of entities matching the filters, across all pages
+     */
+    public long getTotalElements() {
+        return totalElements;
+    }
+
+    /**
+     * @return number of pages
+     */
+    public int getTotalPages() {
+        if(pageSize <= 0) {
+            return 0;
+        }
+        return (int) ((totalElements + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * @return true if there are more entities after this page
+     */
+    public boolean hasNext() {
+        return page + 1 < getTotalPages();
+    }
+
+    /**
+     * @return true if there are entities before this page
+     */
+    public boolean hasPrevious() {
+        return page > 0;
+    }
+
+}
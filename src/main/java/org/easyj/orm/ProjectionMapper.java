@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.persistence.PersistenceException;
+
+/**
+ * Maps projection rows to instances of a DTO {@code Class} through its constructors
+ * <br><br>
+ * A row is either an {@code Object[]} of the selected columns or a single column value.
+ * The constructor taking as many arguments as the row has columns is used, in select order.
+ * When several constructors have that many arguments, the first one accepting the row
+ * is picked and kept for following rows of the same size.
+ * <br><br>
+ * Numeric columns are converted to the declared numeric type, since native queries return
+ * whatever the JDBC driver chose ({@code BigInteger}, {@code BigDecimal}, {@code Integer}...).
+ * Rows that already are instances of the DTO, such as results of {@code SELECT NEW} constructor
+ * expressions, are returned as they are.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+final class ProjectionMapper<D> {
+
+    private static final Map<Class<?>, Class<?>> WRAPPERS = new HashMap<Class<?>, Class<?>>();
+
+    static {
+        WRAPPERS.put(boolean.class, Boolean.class);
+        WRAPPERS.put(byte.class, Byte.class);
+        WRAPPERS.put(short.class, Short.class);
+        WRAPPERS.put(char.class, Character.class);
+        WRAPPERS.put(int.class, Integer.class);
+        WRAPPERS.put(long.class, Long.class);
+        WRAPPERS.put(float.class, Float.class);
+        WRAPPERS.put(double.class, Double.class);
+    }
+
+    private final Class<D> type;
+    private final ConcurrentMap<Integer, Constructor<D>> constructors = new ConcurrentHashMap<Integer, Constructor<D>>();
+
+    ProjectionMapper(Class<D> type) {
+        this.type = type;
+    }
+
+    /**
+     * @param rows projection rows
+     * @return one DTO per row, in the same order
+     * @throws PersistenceException if no constructor accepts a row or the constructor fails
+     */
+    List<D> map(List<?> rows) {
+        List<D> result = new ArrayList<D>(rows.size());
+        for(Object row : rows) {
+            result.add(map(row));
+        }
+        return result;
+    }
+
+    /**
+     * @param row projection row
+     * @return DTO built from the row, or null if the row is null
+     * @throws PersistenceException if no constructor accepts the row or the constructor fails
+     */
+    D map(Object row) {
+        if(row == null) {
+            return null;
+        }
+        if(!(row instanceof Object[]) && type.isInstance(row)) {
+            return type.cast(row);
+        }
+
+        Object[] values = row instanceof Object[] ? ((Object[]) row).clone() : new Object[] {row};
+        Constructor<D> constructor = constructors.get(values.length);
+        if(constructor == null || !accepts(constructor, values)) {
+            constructor = resolve(values);
+        }
+
+        Class<?>[] parameterTypes = constructor.getParameterTypes();
+        for(int i = 0; i < values.length; i++) {
+            values[i] = convert(values[i], parameterTypes[i]);
+        }
+        try {
+            return constructor.newInstance(values);
+        } catch(InstantiationException ex) {
+            throw new PersistenceException("Could not instantiate projection " + type.getName(), ex);
+        } catch(IllegalAccessException ex) {
+            throw new PersistenceException("Could not instantiate projection " + type.getName(), ex);
+        } catch(InvocationTargetException ex) {
+            throw new PersistenceException("Could not instantiate projection " + type.getName(), ex.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Constructor<D> resolve(Object[] values) {
+        for(Constructor<?> candidate : type.getDeclaredConstructors()) {
+            if(candidate.getParameterTypes().length == values.length && accepts(candidate, values)) {
+                Constructor<D> constructor = (Constructor<D>) candidate;
+                constructor.setAccessible(true);
+                constructors.putIfAbsent(values.length, constructor);
+                return constructor;
+            }
+        }
+        throw new PersistenceException("No constructor of projection " + type.getName()
+                + " accepts a row of " + values.length + " columns");
+    }
+
+    private static boolean accepts(Constructor<?> constructor, Object[] values) {
+        Class<?>[] parameterTypes = constructor.getParameterTypes();
+        for(int i = 0; i < values.length; i++) {
+            if(!accepts(parameterTypes[i], values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean accepts(Class<?> parameterType, Object value) {
+        if(value == null) {
+            return !parameterType.isPrimitive();
+        }
+        Class<?> target = parameterType.isPrimitive() ? WRAPPERS.get(parameterType) : parameterType;
+        if(target.isInstance(value)) {
+            return true;
+        }
+        return value instanceof Number && (Number.class.isAssignableFrom(target) || target == Boolean.class);
+    }
+
+    private static Object convert(Object value, Class<?> parameterType) {
+        if(!(value instanceof Number)) {
+            return value;
+        }
+        Class<?> target = parameterType.isPrimitive() ? WRAPPERS.get(parameterType) : parameterType;
+        if(target.isInstance(value)) {
+            return value;
+        }
+        Number number = (Number) value;
+        if(target == Long.class) {
+            return number.longValue();
+        } else if(target == Integer.class) {
+            return number.intValue();
+        } else if(target == Short.class) {
+            return number.shortValue();
+        } else if(target == Byte.class) {
+            return number.byteValue();
+        } else if(target == Double.class) {
+            return number.doubleValue();
+        } else if(target == Float.class) {
+            return number.floatValue();
+        } else if(target == BigDecimal.class) {
+            return number instanceof BigInteger ? new BigDecimal((BigInteger) number) : new BigDecimal(number.toString());
+        } else if(target == BigInteger.class) {
+            return number instanceof BigDecimal ? ((BigDecimal) number).toBigInteger() : BigInteger.valueOf(number.longValue());
+        } else if(target == Boolean.class) {
+            return number.intValue() != 0;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.easyj.orm.SingleDao.QueryType;
+
+/**
+ * Query prepared once by {@link SingleDao#prepare(java.lang.String, java.lang.Class)} to be executed
+ * many times with different values
+ * <br><br>
+ * The handle keeps the query type and the names of its parameters, in order of first appearance,
+ * so executing it only binds the values: the query text is not inspected again and the caller
+ * needs no parameter {@code Map}. Handles are immutable and can be shared between threads,
+ * typically kept in a {@code static final} field next to the code that runs them.
+ * Only named parameters ({@code :name}) are recognized.
+ *
+ * @param <E> type of the results
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public final class QueryHandle<E> {
+
+    private final String query;
+    private final Class<E> resultClass;
+    private final QueryType type;
+    private final List<String> parameterNames;
+    private final int startPosition;
+    private final int maxResults;
+
+    QueryHandle(String query, Class<E> resultClass, QueryType type, String queryString) {
+        this(query, resultClass, type, parseParameterNames(queryString), -1, -1);
+    }
+
+    private QueryHandle(String query, Class<E> resultClass, QueryType type, List<String> parameterNames, int startPosition, int maxResults) {
+        this.query = query;
+        this.resultClass = resultClass;
+        this.type = type;
+        this.parameterNames = parameterNames;
+        this.startPosition = startPosition;
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * @return {@code @NamedQuery} name, JPQL or native query as given to {@code prepare}
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    public Class<E> getResultClass() {
+        return resultClass;
+    }
+
+    public QueryType getType() {
+        return type;
+    }
+
+    /**
+     * @return names of the query parameters, in the order values are expected by {@link #bind(java.lang.Object[])}
+     */
+    public List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    public int getStartPosition() {
+        return startPosition;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * Returns a handle for the same query that limits the rows returned
+     *
+     * @param startPosition first row returned, or -1 to start at the first row
+     * @param maxResults maximum number of rows returned, or -1 for no limit
+     * @return new handle with the limits applied
+     */
+    public QueryHandle<E> limit(int startPosition, int maxResults) {
+        return new QueryHandle<E>(query, resultClass, type, parameterNames, startPosition, maxResults);
+    }
+
+    /**
+     * Pairs the values with the parameter names, in order
+     *
+     * @param values one value per name of {@link #getParameterNames()}
+     * @return parameter {@code Map} for the query, including the limits of this handle
+     * @throws IllegalArgumentException if there are not as many values as parameters
+     */
+    public Map<String, Object> bind(Object... values) {
+        int count = values == null ? 0 : values.length;
+        if(count != parameterNames.size()) {
+            throw new IllegalArgumentException("Query expects " + parameterNames.size() + " parameters " + parameterNames + " but got " + count + ": [" + query + "]");
+        }
+        Map<String, Object> params = new HashMap<String, Object>((count + 2) * 4 / 3 + 1);
+        for(int i = 0; i < count; i++) {
+            params.put(parameterNames.get(i), values[i]);
+        }
+        if(maxResults > 0) {
+            params.put(SingleDao.PARAM_MAX_RESULTS, maxResults);
+        }
+        if(startPosition > 0) {
+            params.put(SingleDao.PARAM_START_POSITION, startPosition);
+        }
+        return params;
+    }
+
+    /**
+     * Finds the named parameters of a query, skipping quoted literals and {@code ::} casts
+     */
+    static List<String> parseParameterNames(String queryString) {
+        if(queryString == null) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<String>();
+        boolean quoted = false;
+        int length = queryString.length();
+        for(int i = 0; i < length; i++) {
+            char c = queryString.charAt(i);
+            if(c == '\'') {
+                quoted = !quoted;
+            } else if(!quoted && c == ':') {
+                if(i + 1 < length && queryString.charAt(i + 1) == ':') {
+                    i++;
+                } else if(i + 1 < length && Character.isJavaIdentifierStart(queryString.charAt(i + 1))) {
+                    int end = i + 2;
+                    while(end < length && Character.isJavaIdentifierPart(queryString.charAt(end))) {
+                        end++;
+                    }
+                    String name = queryString.substring(i + 1, end);
+                    if(!names.contains(name)) {
+                        names.add(name);
+                    }
+                    i = end - 1;
+                }
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryHandle[" + type + " " + query + " " + parameterNames + "]";
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import org.easyj.orm.SingleDao.QueryType;
+
+/**
+ * Receives the timing of every database operation executed by a {@code Dao}
+ * <br><br>
+ * Implementations must be thread-safe and fast, since they are called on every operation.
+ * When no {@code QueryMetrics} is set on the {@code Dao} nothing is measured.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ * @see InMemoryQueryMetrics
+ */
+public interface QueryMetrics {
+
+    /**
+     * Records one execution
+     *
+     * @param name {@code @NamedQuery} name, query string or entity operation such as {@code find Entity}
+     * @param queryType query type, or null for entity operations
+     * @param elapsedNanos execution time in nanoseconds
+     * @param rows number of rows returned or affected
+     * @param error exception thrown by the execution, or null if it succeeded
+     */
+    public void record(String name, QueryType queryType, long elapsedNanos, int rows, Throwable error);
+
+}
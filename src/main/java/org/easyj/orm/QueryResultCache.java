@@ -0,0 +1,352 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.easyj.orm.SingleDao.QueryType;
+
+/**
+ * Cache of query results used by {@code findByQuery} and {@code findListByQuery} of {@link AbstractSingleDao}
+ * <br><br>
+ * Caching is opt-in: only queries registered with {@link #register(java.lang.String, java.lang.Class[])}
+ * are cached. Results are keyed by query, query type and parameters, paging parameters included,
+ * and are invalidated whenever an entity type the query reads from is written through the {@code Dao}.
+ * Updates by query invalidate every result. Entities read within an enclosing transaction or unit
+ * of work are still managed by it, so those results are not cached, see {@link AbstractSingleDao#isCacheableRead()}.
+ * <br><br>
+ * The cache is bounded by the total number of rows held ({@link #setMaxWeight(long)})
+ * and by the time a result is kept ({@link #setTtlMillis(long)}). Results of each query are kept
+ * in their own region with its own lock, so reads of different queries do not contend, and
+ * are evicted least recently used first within the query.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class QueryResultCache {
+
+    public static final long DEFAULT_MAX_WEIGHT = 10000;
+
+    private final ConcurrentMap<String, Set<Class<?>>> queries = new ConcurrentHashMap<String, Set<Class<?>>>();
+    private final ConcurrentMap<String, Region> regions = new ConcurrentHashMap<String, Region>();
+
+    private volatile long maxWeight = DEFAULT_MAX_WEIGHT;
+    private volatile long ttlNanos = 0;
+
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadTime = new AtomicLong();
+
+    /**
+     * Enables caching of a query
+     *
+     * @param query {@code @NamedQuery} name or query string, exactly as passed to the {@code Dao}
+     * @param entityTypes entity classes the query reads from. When none is given the result class is used
+     */
+    public void register(String query, Class<?>... entityTypes) {
+        queries.put(query, Collections.unmodifiableSet(new HashSet<Class<?>>(Arrays.asList(entityTypes))));
+    }
+
+    /**
+     * Registers every query of the {@code Map} with the entity classes it reads from
+     *
+     * @param queries entity classes keyed by query
+     */
+    public void setQueries(Map<String, List<Class<?>>> queries) {
+        for(Map.Entry<String, List<Class<?>>> entry : queries.entrySet()) {
+            register(entry.getKey(), entry.getValue().toArray(new Class<?>[entry.getValue().size()]));
+        }
+    }
+
+    /**
+     * @param query {@code @NamedQuery} name or query string
+     * @return true if results of the query are cached
+     */
+    public boolean isCacheable(String query) {
+        return queries.containsKey(query);
+    }
+
+    /**
+     * Returns the current generation, to be passed to
+     * {@link #put(java.lang.String, org.easyj.orm.SingleDao.QueryType, java.util.Map, java.lang.Class, java.lang.Object, long, long)}
+     * so results read while an invalidation happens are not cached
+     *
+     * @return current generation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns a cached result
+     *
+     * @param query {@code @NamedQuery} name or query string
+     * @param queryType query type
+     * @param params query parameters, paging included
+     * @return cached result or null if not cached
+     */
+    public Object get(String query, QueryType queryType, Map<String, Object> params) {
+        Region region = regions.get(query);
+        Object value = region == null ? null : region.get(new Key(query, queryType, params));
+        if(value == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Caches a result, unless an invalidation happened since {@code generation} was read
+     *
+     * @param query {@code @NamedQuery} name or query string
+     * @param queryType query type
+     * @param params query parameters, paging included
+     * @param resultClass {@code Class} of the result, used as entity type when none was registered
+     * @param value result to be cached, a {@code List} weighs its size and any other value weighs 1
+     * @param generation generation read before the query was executed
+     * @param loadTime time spent executing the query, in nanoseconds
+     */
+    public void put(String query, QueryType queryType, Map<String, Object> params, Class<?> resultClass,
+            Object value, long generation, long loadTime) {
+        Set<Class<?>> types = queries.get(query);
+        if(value == null || types == null || generation != this.generation.get()) {
+            return;
+        }
+        if(types.isEmpty()) {
+            types = Collections.<Class<?>>singleton(resultClass);
+        }
+        long entryWeight = value instanceof List ? Math.max(1, ((List<?>) value).size()) : 1;
+        if(entryWeight > maxWeight) {
+            return;
+        }
+
+        Region region = regions.get(query);
+        if(region == null) {
+            region = new Region();
+            Region existing = regions.putIfAbsent(query, region);
+            if(existing != null) {
+                region = existing;
+            }
+        }
+        if(!region.put(new Key(query, queryType, params), new CachedResult(value, types, entryWeight), generation)) {
+            return;
+        }
+        loads.incrementAndGet();
+        this.loadTime.addAndGet(loadTime);
+
+        trim(region);
+    }
+
+    /**
+     * Removes results while over the maximum weight: older results of the query just
+     * cached first, then results of the other queries
+     */
+    private void trim(Region written) {
+        while(weight.get() > maxWeight && written.removeEldest(1)) {
+        }
+        for(Region region : regions.values()) {
+            while(weight.get() > maxWeight && region.removeEldest(region == written ? 1 : 0)) {
+            }
+        }
+    }
+
+    /**
+     * Removes every result read from the entity type
+     *
+     * @param entityType entity {@code Class} that was written
+     */
+    public void invalidate(Class<?> entityType) {
+        generation.incrementAndGet();
+        for(Region region : regions.values()) {
+            region.invalidate(entityType);
+        }
+    }
+
+    /**
+     * Removes every cached result
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        for(Region region : regions.values()) {
+            region.invalidate(null);
+        }
+    }
+
+    public CacheStats getStats() {
+        return new CacheStats(hits.get(), misses.get(), evictions.get(), loads.get(), loadTime.get());
+    }
+
+    /**
+     * @return number of rows currently held
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @param maxWeight maximum number of rows held across all cached results
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @param ttlMillis time a result is kept, in milliseconds. 0 keeps results until invalidated or evicted
+     */
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Results of one query, least recently used first. Each query has its own lock, so reads
+     * of different queries never contend, and the weight is kept across all regions.
+     */
+    private final class Region {
+
+        private final LinkedHashMap<Key, CachedResult> results = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true);
+
+        synchronized Object get(Key key) {
+            CachedResult cached = results.get(key);
+            if(cached != null && ttlNanos > 0 && System.nanoTime() - cached.loaded > ttlNanos) {
+                remove(key);
+                evictions.incrementAndGet();
+                cached = null;
+            }
+            return cached == null ? null : cached.value;
+        }
+
+        /**
+         * Checks the generation under the region lock: an invalidation either bumped it before,
+         * and the result is dropped, or clears this region after, removing the result
+         */
+        synchronized boolean put(Key key, CachedResult cached, long loadGeneration) {
+            if(loadGeneration != generation.get()) {
+                return false;
+            }
+            remove(key);
+            results.put(key, cached);
+            weight.addAndGet(cached.weight);
+            return true;
+        }
+
+        /**
+         * @param keep number of most recently used results not to be removed
+         * @return true if a result was removed
+         */
+        synchronized boolean removeEldest(int keep) {
+            if(results.size() <= keep) {
+                return false;
+            }
+            Iterator<CachedResult> eldest = results.values().iterator();
+            weight.addAndGet(-eldest.next().weight);
+            eldest.remove();
+            evictions.incrementAndGet();
+            return true;
+        }
+
+        /**
+         * @param entityType entity {@code Class} written, or null to remove every result
+         */
+        synchronized void invalidate(Class<?> entityType) {
+            Iterator<CachedResult> it = results.values().iterator();
+            while(it.hasNext()) {
+                CachedResult cached = it.next();
+                if(entityType == null || cached.entityTypes.contains(entityType)) {
+                    weight.addAndGet(-cached.weight);
+                    it.remove();
+                }
+            }
+        }
+
+        private void remove(Key key) {
+            CachedResult previous = results.remove(key);
+            if(previous != null) {
+                weight.addAndGet(-previous.weight);
+            }
+        }
+
+    }
+
+    private static final class Key {
+
+        private final String query;
+        private final QueryType queryType;
+        private final Map<String, Object> params;
+        private final int hash;
+
+        Key(String query, QueryType queryType, Map<String, Object> params) {
+            this.query = query;
+            this.queryType = queryType;
+            this.params = params == null ? Collections.<String, Object>emptyMap() : new TreeMap<String, Object>(params);
+            this.hash = 31 * (31 * query.hashCode() + queryType.hashCode()) + this.params.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return queryType == other.queryType && query.equals(other.query) && params.equals(other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    private static final class CachedResult {
+
+        private final Object value;
+        private final Set<Class<?>> entityTypes;
+        private final long weight;
+        private final long loaded = System.nanoTime();
+
+        CachedResult(Object value, Set<Class<?>> entityTypes, long weight) {
+            this.value = value;
+            this.entityTypes = entityTypes;
+            this.weight = weight;
+        }
+
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import org.easyj.orm.SingleDao.QueryType;
+
+/**
+ * Immutable snapshot of the executions of one query collected by {@link InMemoryQueryMetrics}
+ * <br><br>
+ * Latencies are kept in a histogram of power of two microsecond buckets, so
+ * percentiles are upper bounds accurate to a factor of two.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class QueryStatistics {
+
+    private final String name;
+    private final QueryType queryType;
+    private final long count;
+    private final long errors;
+    private final long rows;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] buckets;
+
+    public QueryStatistics(String name, QueryType queryType, long count, long errors, long rows,
+            long totalNanos, long maxNanos, long[] buckets) {
+        this.name = name;
+        this.queryType = queryType;
+        this.count = count;
+        this.errors = errors;
+        this.rows = rows;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.buckets = buckets;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return query type, or null for entity operations
+     */
+    public QueryType getQueryType() {
+        return queryType;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return total number of rows returned or affected
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public double getMeanNanos() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * Returns the latency below which the given fraction of executions fall
+     *
+     * @param percentile fraction between 0 and 1, e.g. 0.99
+     * @return upper bound of the latency in nanoseconds
+     */
+    public long getPercentileNanos(double percentile) {
+        long total = 0;
+        for(long bucket : buckets) {
+            total += bucket;
+        }
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for(int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if(seen >= target && seen > 0) {
+                return Math.min(maxNanos, (1L << i) * 1000L);
+            }
+        }
+        return maxNanos;
+    }
+
+    /**
+     * @return count of executions per bucket, bucket {@code i} holding latencies below {@code 2^i} microseconds
+     */
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryStatistics[" + (queryType == null ? "" : queryType + " ") + name + ": count=" + count
+                + ", errors=" + errors + ", rows=" + rows + ", meanNanos=" + (long) getMeanNanos() + ", maxNanos=" + maxNanos + "]";
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+import java.util.Iterator;
+
+/**
+ * Forward-only {@code Iterator} over a query result backed by an open database cursor.
+ * <br><br>
+ * Rows are read from the database as the iterator advances and each row is
+ * detached from the persistence context once the next one is requested.
+ * The stream must always be closed to release the cursor.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public interface ResultStream<E> extends Iterator<E> {
+
+    /**
+     * Closes the underlying cursor. Calling it more than once has no effect.
+     */
+    public void close();
+
+}
@@ -0,0 +1,35 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+/**
+ * Callback invoked for every row read by the {@code forEach} methods of {@link SingleDao}
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public interface RowCallback<E> {
+
+    /**
+     * Handles a single row. The row is detached from the persistence context
+     * after this method returns.
+     *
+     * @param row current row
+     */
+    public void onRow(E row);
+
+}
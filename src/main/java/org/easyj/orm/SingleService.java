@@ -16,8 +16,11 @@
 
 package org.easyj.orm;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import org.easyj.orm.SingleDao.Aggregate;
 
 /**
  * Interface that defines the access to {@code @Repository} layer
@@ -28,15 +31,41 @@ import java.util.Map;
 public interface SingleService {
 
     public <E> E save(E entity);
+    public <E> E insert(E entity);
+    public <E> List<BatchResult> saveAll(Iterable<E> entities);
+    public <E> List<BatchResult> saveAll(Iterator<E> entities, int chunkSize);
+    public <E> List<BatchResult> bulkInsert(Class<E> klazz, Iterable<E> entities);
+    public <E> List<BatchResult> bulkInsert(Class<E> klazz, Iterator<E> entities, int chunkSize);
     public <E> E delete(E entity);
     public <E, ID> E delete(Class<E> klazz, ID primaryKey);
     public <E, ID> E findOne(Class<E> klazz, ID id);
+    public <E, ID> E findOne(Class<E> klazz, ID id, FetchPlan fetchPlan);
+    public <E, ID> Map<ID, E> findAllById(Class<E> klazz, Collection<ID> ids);
     public <E> List<E> findAll(Class<E> klazz);
     public <E> List<E> findAll(Class<E> klazz, Map<String, Object> params);
+    public <E> List<E> findAll(Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan);
+    public <E> KeysetPage<E> findPage(Class<E> klazz, Map<String, Object> filters, SortKey sortKey, Object lastSeenKey, int size);
+    public <E> Page<E> findPage(Class<E> klazz, Map<String, Object> filters, int page, int size);
+
+    public <E> long count(Class<E> klazz, Map<String, Object> filters);
+    public <E> boolean exists(Class<E> klazz, Map<String, Object> filters);
+    public <E> Object aggregate(Class<E> klazz, Aggregate function, String attribute, Map<String, Object> filters);
+    public <E> Map<Object, Object> aggregate(Class<E> klazz, Aggregate function, String attribute, Map<String, Object> filters, String groupBy);
     
     public <E> E findByQuery(String query, Class<E> klazz, Map<String, Object> params);
+    public <E> E findByQuery(String query, Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan);
     public <E> E findByNativeQuery(String query, Class<E> klazz, Map<String, Object> params);
     
     public <E> List<E> findListByQuery(String query, Class<E> klazz, Map<String, Object> params);
+    public <E> List<E> findListByQuery(String query, Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan);
     public <E> List<E> findListByNativeQuery(String query, Class<E> klazz, Map<String, Object> params);
+
+    public <E> QueryHandle<E> prepare(String query, Class<E> klazz);
+    public <E> QueryHandle<E> prepareNative(String query, Class<E> klazz);
+    public <E> E findByQuery(QueryHandle<E> handle, Object... values);
+    public <E> List<E> findListByQuery(QueryHandle<E> handle, Object... values);
+
+    public <D> List<D> findProjectionList(String query, Class<D> dtoClass, Map<String, Object> params);
+    public <D> List<D> findProjectionListByNativeQuery(String query, Class<D> dtoClass, Map<String, Object> params);
+    public ColumnBatch findColumnsByNativeQuery(String query, Map<String, Object> params, ColumnBatch.Type... types);
 }
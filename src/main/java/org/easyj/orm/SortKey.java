@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm;
+
+/**
+ * Entity attribute used to order and seek through pages in
+ * {@link SingleDao#findPage(java.lang.Class, java.util.Map, org.easyj.orm.SortKey, java.lang.Object, int)}
+ * <br><br>
+ * The attribute must be unique and not null, e.g. the entity id, otherwise rows
+ * sharing the same value on a page boundary would be skipped.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class SortKey {
+
+    private final String attribute;
+    private final boolean ascending;
+
+    public SortKey(String attribute, boolean ascending) {
+        if(attribute == null || attribute.trim().length() == 0) {
+            throw new IllegalArgumentException("SortKey attribute must not be empty");
+        }
+        this.attribute = attribute.trim();
+        this.ascending = ascending;
+    }
+
+    public static SortKey asc(String attribute) {
+        return new SortKey(attribute, true);
+    }
+
+    public static SortKey desc(String attribute) {
+        return new SortKey(attribute, false);
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    @Override
+    public String toString() {
+        return attribute + (ascending ? " ASC" : " DESC");
+    }
+
+}
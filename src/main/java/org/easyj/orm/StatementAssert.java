@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Assertions on the number of SQL statements issued by an operation, for tests
+ * <br><br>
+ * Statements are only seen if the persistence provider reports them to {@link StatementCounter},
+ * e.g. with {@code hibernate.ejb.interceptor} set to {@link org.easyj.orm.jpa.StatementCountingInterceptor}.
+ * As {@link StatementCounter} counts statement preparations, a JDBC batch counts once whatever its size.
+ * <pre>
+ * List&lt;Customer&gt; customers = StatementAssert.assertMaxStatements(2, new Callable&lt;List&lt;Customer&gt;&gt;() {
+ *     public List&lt;Customer&gt; call() {
+ *         return service.findListByQuery("Customer.findByStatus", Customer.class, params, FetchPlan.of("orders"));
+ *     }
+ * });
+ * </pre>
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public final class StatementAssert {
+
+    private StatementAssert() {
+    }
+
+    /**
+     * Runs the operation and fails if it issues more than {@code maxStatements} statements
+     *
+     * @param maxStatements maximum number of statements
+     * @param operation operation to be run
+     * @return result of the operation
+     * @throws AssertionError if the operation issued more statements, listing them
+     * @throws Exception thrown by the operation
+     */
+    public static <T> T assertMaxStatements(int maxStatements, Callable<T> operation) throws Exception {
+        return run(operation, maxStatements, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Runs the operation and fails if it prepares any statement more than {@code maxRepeats} times,
+     * with whatever parameters
+     *
+     * @param maxRepeats maximum number of preparations of each statement
+     * @param operation operation to be run
+     * @return result of the operation
+     * @throws AssertionError if a statement was repeated more, listing the statements
+     * @throws Exception thrown by the operation
+     */
+    public static <T> T assertMaxRepeats(int maxRepeats, Callable<T> operation) throws Exception {
+        return run(operation, Integer.MAX_VALUE, maxRepeats);
+    }
+
+    /**
+     * Runs the operation and returns the statements it issued
+     *
+     * @param operation operation to be run
+     * @return statements issued by the operation
+     * @throws Exception thrown by the operation
+     */
+    public static StatementReport count(Callable<?> operation) throws Exception {
+        StatementReport report;
+        StatementCounter.open("operation");
+        try {
+            operation.call();
+        } finally {
+            report = StatementCounter.close();
+        }
+        return report;
+    }
+
+    private static <T> T run(Callable<T> operation, int maxStatements, int maxRepeats) throws Exception {
+        T result;
+        StatementReport report;
+        StatementCounter.open("operation");
+        try {
+            result = operation.call();
+        } finally {
+            report = StatementCounter.close();
+        }
+        if(report.getStatementCount() > maxStatements) {
+            throw new AssertionError("Expected at most " + maxStatements + " statements but got " + report);
+        }
+        if(maxRepeats < Integer.MAX_VALUE && !report.getRepeated(maxRepeats + 1).isEmpty()) {
+            throw new AssertionError("Expected no statement executed more than " + maxRepeats + " times but got " + report);
+        }
+        return result;
+    }
+
+}
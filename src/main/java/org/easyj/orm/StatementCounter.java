@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the SQL statements prepared by the current thread between {@link #open(java.lang.String)}
+ * and {@link #close()}
+ * <br><br>
+ * Statements are reported by the persistence provider, e.g. through
+ * {@link org.easyj.orm.jpa.StatementCountingInterceptor} for Hibernate. Scopes can be nested:
+ * each statement is counted by every open scope of the thread. Nothing is counted, and
+ * {@link #record(java.lang.String)} costs a {@code ThreadLocal} read, while no scope is open.
+ * <br><br>
+ * Statements are grouped after replacing numeric and string literals by {@code ?}, so statements
+ * that differ only in their parameters count as repetitions of the same statement.
+ * <br><br>
+ * Preparations are counted, not executions: a JDBC batch prepares its statement once however many
+ * rows it carries, and a statement reused by the provider for several executions is counted once.
+ * Counts then reflect the statements sent rather than the rows written, and batched writes count
+ * less than the same writes issued one by one.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ * @see StatementCountingAdvice
+ * @see StatementAssert
+ */
+public final class StatementCounter {
+
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<Scope>();
+
+    private StatementCounter() {
+    }
+
+    /**
+     * Starts counting the statements of the current thread
+     *
+     * @param operation name of the operation reported
+     */
+    public static void open(String operation) {
+        SCOPE.set(new Scope(operation, SCOPE.get()));
+    }
+
+    /**
+     * Stops counting for the scope opened last
+     *
+     * @return statements counted by the scope, or null if no scope is open
+     */
+    public static StatementReport close() {
+        Scope scope = SCOPE.get();
+        if(scope == null) {
+            return null;
+        }
+        if(scope.parent == null) {
+            SCOPE.remove();
+        } else {
+            SCOPE.set(scope.parent);
+        }
+        return new StatementReport(scope.operation, scope.count, scope.statements);
+    }
+
+    /**
+     * @return true if a scope is open on the current thread
+     */
+    public static boolean isCounting() {
+        return SCOPE.get() != null;
+    }
+
+    /**
+     * Counts a statement in every scope open on the current thread
+     *
+     * @param sql statement being prepared
+     */
+    public static void record(String sql) {
+        Scope scope = SCOPE.get();
+        if(scope == null || sql == null) {
+            return;
+        }
+        String statement = normalize(sql);
+        for(; scope != null; scope = scope.parent) {
+            scope.record(statement);
+        }
+    }
+
+    /**
+     * Replaces numeric and quoted string literals by {@code ?} and collapses whitespace
+     *
+     * @param sql SQL statement
+     * @return statement without literal values
+     */
+    static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        int length = sql.length();
+        for(int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            if(c == '\'') {
+                for(i++; i < length; i++) {
+                    if(sql.charAt(i) == '\'') {
+                        if(i + 1 < length && sql.charAt(i + 1) == '\'') {
+                            i++;
+                        } else {
+                            break;
+                        }
+                    }
+                }
+                normalized.append('?');
+            } else if(Character.isDigit(c) && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))) {
+                while(i + 1 < length && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                normalized.append('?');
+            } else if(Character.isWhitespace(c)) {
+                if(normalized.length() > 0 && normalized.charAt(normalized.length() - 1) != ' ') {
+                    normalized.append(' ');
+                }
+            } else {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString().trim();
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+    }
+
+    private static final class Scope {
+
+        private final String operation;
+        private final Scope parent;
+        private final Map<String, Integer> statements = new LinkedHashMap<String, Integer>();
+        private int count;
+
+        Scope(String operation, Scope parent) {
+            this.operation = operation;
+            this.parent = parent;
+        }
+
+        void record(String statement) {
+            Integer previous = statements.get(statement);
+            statements.put(statement, previous == null ? 1 : previous + 1);
+            count++;
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Opt-in diagnostic advice counting the SQL statements of each top-level service call
+ * <br><br>
+ * Calls issuing more than {@link #getMaxStatements()} statements, or repeating a statement
+ * that differs only in its parameters more than {@link #getMaxRepeats()} times, are logged
+ * and kept as offenders. Calls made while a {@link StatementCounter} scope is open are counted
+ * by the outer call only. Applied, for instance, with:
+ * <pre>
+ * &lt;aop:config&gt;
+ *     &lt;aop:advisor advice-ref="statementCountingAdvice"
+ *         pointcut="execution(* org.easyj.orm.SingleService+.*(..)) || execution(* org.easyj.orm.EntityService+.*(..))"/&gt;
+ * &lt;/aop:config&gt;
+ * </pre>
+ * Statements are only seen if the persistence provider reports them, e.g. with
+ * {@code hibernate.ejb.interceptor} set to {@link org.easyj.orm.jpa.StatementCountingInterceptor}.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class StatementCountingAdvice implements MethodInterceptor {
+
+    public static final int DEFAULT_MAX_STATEMENTS = 50;
+    public static final int DEFAULT_MAX_REPEATS = 10;
+    public static final int DEFAULT_MAX_OFFENDERS = 100;
+
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Queue<StatementReport> offenders = new ConcurrentLinkedQueue<StatementReport>();
+    private final AtomicInteger offenderCount = new AtomicInteger();
+
+    private volatile int maxStatements = DEFAULT_MAX_STATEMENTS;
+    private volatile int maxRepeats = DEFAULT_MAX_REPEATS;
+    private volatile int maxOffenders = DEFAULT_MAX_OFFENDERS;
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if(StatementCounter.isCounting()) {
+            return invocation.proceed();
+        }
+        Class<?> target = invocation.getThis() == null ? invocation.getMethod().getDeclaringClass()
+                : ClassUtils.getUserClass(invocation.getThis());
+        StatementCounter.open(target.getSimpleName() + "." + invocation.getMethod().getName());
+        try {
+            return invocation.proceed();
+        } finally {
+            check(StatementCounter.close());
+        }
+    }
+
+    /**
+     * Logs and keeps the report if it crosses any threshold
+     *
+     * @param report statements of one call
+     */
+    protected void check(StatementReport report) {
+        boolean tooMany = maxStatements > 0 && report.getStatementCount() > maxStatements;
+        Map<String, Integer> repeated = report.getRepeated(maxRepeats > 0 ? maxRepeats + 1 : Integer.MAX_VALUE);
+        if(!tooMany && repeated.isEmpty()) {
+            return;
+        }
+        if(logger.isWarnEnabled()) {
+            logger.warn("{} issued {} statements, repeated: {}", new Object[] {report.getOperation(), report.getStatementCount(), repeated});
+        }
+        if(offenderCount.incrementAndGet() <= maxOffenders) {
+            offenders.add(report);
+        } else {
+            offenderCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return calls that crossed a threshold, oldest first
+     */
+    public List<StatementReport> getOffenders() {
+        return new ArrayList<StatementReport>(offenders);
+    }
+
+    /**
+     * Discards the offenders kept so far
+     */
+    public void clearOffenders() {
+        offenders.clear();
+        offenderCount.set(0);
+    }
+
+    public int getMaxStatements() {
+        return maxStatements;
+    }
+
+    /**
+     * @param maxStatements number of statements per call above which the call is reported. 0 disables the check
+     */
+    public void setMaxStatements(int maxStatements) {
+        this.maxStatements = maxStatements;
+    }
+
+    public int getMaxRepeats() {
+        return maxRepeats;
+    }
+
+    /**
+     * @param maxRepeats executions of the same statement per call above which the call is reported. 0 disables the check
+     */
+    public void setMaxRepeats(int maxRepeats) {
+        this.maxRepeats = maxRepeats;
+    }
+
+    public int getMaxOffenders() {
+        return maxOffenders;
+    }
+
+    /**
+     * @param maxOffenders number of offending calls kept, later ones are only logged
+     */
+    public void setMaxOffenders(int maxOffenders) {
+        this.maxOffenders = maxOffenders;
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable count of the SQL statements prepared within one {@link StatementCounter} scope
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class StatementReport {
+
+    private final String operation;
+    private final int statementCount;
+    private final Map<String, Integer> statements;
+
+    public StatementReport(String operation, int statementCount, Map<String, Integer> statements) {
+        this.operation = operation;
+        this.statementCount = statementCount;
+        this.statements = Collections.unmodifiableMap(new LinkedHashMap<String, Integer>(statements));
+    }
+
+    /**
+     * @return name of the operation counted
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return total number of statements prepared
+     */
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * @return executions of each distinct statement, literals replaced by {@code ?}, in order of first execution
+     */
+    public Map<String, Integer> getStatements() {
+        return statements;
+    }
+
+    /**
+     * Returns the statements executed at least {@code minCount} times, the usual sign of N+1 loads
+     *
+     * @param minCount minimum number of executions
+     * @return executions of each repeated statement
+     */
+    public Map<String, Integer> getRepeated(int minCount) {
+        Map<String, Integer> repeated = new LinkedHashMap<String, Integer>();
+        for(Map.Entry<String, Integer> entry : statements.entrySet()) {
+            if(entry.getValue() >= minCount) {
+                repeated.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return repeated;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder(operation).append(": ").append(statementCount).append(" statements");
+        for(Map.Entry<String, Integer> entry : statements.entrySet()) {
+            report.append("\n  ").append(entry.getValue()).append(" x ").append(entry.getKey());
+        }
+        return report.toString();
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm.jpa;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.ReturningWork;
+
+/**
+ * Inserts a chunk of entities on the JDBC {@code Connection} of the {@code Session},
+ * bypassing the persistence context
+ * <br><br>
+ * Entities are written either with multi-row {@code INSERT ... VALUES (...), (...)} statements,
+ * of at most {@link InsertMetadata#getRowsPerStatement()} rows each, or with one JDBC batch of
+ * single-row statements for databases without multi-row inserts.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+class BulkInsertWork implements ReturningWork<Integer> {
+
+    private final InsertMetadata metadata;
+    private final List<?> entities;
+    private final SessionImplementor session;
+    private final boolean multiRow;
+
+    /**
+     * @param metadata insert metadata of the entity
+     * @param entities entities to be inserted
+     * @param session current session
+     * @param multiRow true for multi-row statements, false for a JDBC batch
+     */
+    BulkInsertWork(InsertMetadata metadata, List<?> entities, SessionImplementor session, boolean multiRow) {
+        this.metadata = metadata;
+        this.entities = entities;
+        this.session = session;
+        this.multiRow = multiRow;
+    }
+
+    @Override
+    public Integer execute(Connection connection) throws SQLException {
+        return multiRow ? insertRows(connection) : insertBatch(connection);
+    }
+
+    private int insertRows(Connection connection) throws SQLException {
+        int inserted = 0;
+        int rowsPerStatement = metadata.getRowsPerStatement();
+        for(int from = 0; from < entities.size(); from += rowsPerStatement) {
+            int to = Math.min(entities.size(), from + rowsPerStatement);
+            PreparedStatement ps = connection.prepareStatement(metadata.getInsertSql(to - from));
+            try {
+                int index = 1;
+                for(int i = from; i < to; i++) {
+                    index = metadata.bind(ps, index, entities.get(i), session);
+                }
+                inserted += ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+        }
+        return inserted;
+    }
+
+    private int insertBatch(Connection connection) throws SQLException {
+        int inserted = 0;
+        PreparedStatement ps = connection.prepareStatement(metadata.getInsertSql(1));
+        try {
+            for(Object entity : entities) {
+                metadata.bind(ps, 1, entity, session);
+                ps.addBatch();
+            }
+            for(int count : ps.executeBatch()) {
+                inserted += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, count);
+            }
+        } finally {
+            ps.close();
+        }
+        return inserted;
+    }
+
+}
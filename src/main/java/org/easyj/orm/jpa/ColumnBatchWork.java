@@ -0,0 +1,224 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.jpa;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.easyj.orm.ColumnBatch;
+import org.hibernate.jdbc.ReturningWork;
+
+/**
+ * Runs a native query on the JDBC {@code Connection} of the {@code Session} and reads the
+ * {@code ResultSet} straight into a {@link ColumnBatch}
+ * <br><br>
+ * Named parameters ({@code :name}) are rewritten as positional ones. {@code Collection}
+ * values are expanded into one placeholder per element, for {@code IN} lists.
+ * Column types not given are taken from the {@code ResultSetMetaData}.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+class ColumnBatchWork implements ReturningWork<ColumnBatch> {
+
+    private final String sql;
+    private final List<Object> values = new ArrayList<Object>();
+    private final ColumnBatch.Type[] types;
+    private final int firstRow;
+    private final int maxRows;
+    private final int fetchSize;
+
+    /**
+     * @param query native query with named parameters
+     * @param params parameter values keyed by name, without the special {@code Dao} parameters
+     * @param types column types, or an empty array to infer them
+     * @param firstRow number of rows skipped before reading
+     * @param maxRows maximum number of rows read, 0 for all
+     * @param fetchSize number of rows fetched per round trip, 0 for the driver default
+     */
+    ColumnBatchWork(String query, Map<String, Object> params, ColumnBatch.Type[] types, int firstRow, int maxRows, int fetchSize) {
+        this.sql = toPositional(query, params, values);
+        this.types = types;
+        this.firstRow = Math.max(0, firstRow);
+        this.maxRows = maxRows;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public ColumnBatch execute(Connection connection) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            for(int i = 0; i < values.size(); i++) {
+                ps.setObject(i + 1, values.get(i));
+            }
+            if(maxRows > 0) {
+                ps.setMaxRows(firstRow + maxRows);
+            }
+            if(fetchSize > 0) {
+                ps.setFetchSize(fetchSize);
+            }
+
+            ResultSet rs = ps.executeQuery();
+            try {
+                return read(rs);
+            } finally {
+                rs.close();
+            }
+        } finally {
+            ps.close();
+        }
+    }
+
+    private ColumnBatch read(ResultSet rs) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int count = meta.getColumnCount();
+        if(types.length > 0 && types.length != count) {
+            throw new IllegalArgumentException("Query returns " + count + " columns but " + types.length + " types were given");
+        }
+
+        String[] names = new String[count];
+        ColumnBatch.Type[] columnTypes = new ColumnBatch.Type[count];
+        for(int i = 0; i < count; i++) {
+            names[i] = meta.getColumnLabel(i + 1);
+            columnTypes[i] = types.length > 0 ? types[i] : toType(meta, i + 1);
+        }
+
+        ColumnBatch batch = maxRows > 0 ? new ColumnBatch(names, columnTypes, Math.min(maxRows, 1024))
+                : new ColumnBatch(names, columnTypes);
+        int skipped = 0;
+        while(skipped < firstRow && rs.next()) {
+            skipped++;
+        }
+        while(rs.next()) {
+            int row = batch.addRow();
+            for(int i = 0; i < count; i++) {
+                int index = i + 1;
+                switch(columnTypes[i]) {
+                    case INT:
+                        batch.setInt(i, row, rs.getInt(index));
+                        break;
+                    case LONG:
+                        batch.setLong(i, row, rs.getLong(index));
+                        break;
+                    case DOUBLE:
+                        batch.setDouble(i, row, rs.getDouble(index));
+                        break;
+                    case TIMESTAMP:
+                        Timestamp timestamp = rs.getTimestamp(index);
+                        batch.setLong(i, row, timestamp == null ? 0 : timestamp.getTime());
+                        break;
+                    default:
+                        batch.setObject(i, row, rs.getObject(index));
+                }
+                if(rs.wasNull()) {
+                    batch.setNull(i, row);
+                }
+            }
+        }
+        batch.trim();
+        return batch;
+    }
+
+    private static ColumnBatch.Type toType(ResultSetMetaData meta, int column) throws SQLException {
+        switch(meta.getColumnType(column)) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return ColumnBatch.Type.INT;
+            case Types.BIGINT:
+                return ColumnBatch.Type.LONG;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return ColumnBatch.Type.DOUBLE;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return meta.getScale(column) == 0 && meta.getPrecision(column) > 0 && meta.getPrecision(column) <= 18
+                        ? ColumnBatch.Type.LONG : ColumnBatch.Type.DOUBLE;
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                return ColumnBatch.Type.TIMESTAMP;
+            default:
+                return ColumnBatch.Type.OBJECT;
+        }
+    }
+
+    /**
+     * Replaces named parameters outside quotes by {@code ?}, collecting their values in order
+     */
+    static String toPositional(String query, Map<String, Object> params, List<Object> values) {
+        StringBuilder sql = new StringBuilder(query.length());
+        char quote = 0;
+        int i = 0;
+        while(i < query.length()) {
+            char c = query.charAt(i);
+            if(quote != 0) {
+                if(c == quote) {
+                    quote = 0;
+                }
+                sql.append(c);
+                i++;
+            } else if(c == '\'' || c == '"') {
+                quote = c;
+                sql.append(c);
+                i++;
+            } else if(c == ':' && i + 1 < query.length() && query.charAt(i + 1) == ':') {
+                sql.append("::");
+                i += 2;
+            } else if(c == ':' && i + 1 < query.length() && Character.isJavaIdentifierStart(query.charAt(i + 1))) {
+                int end = i + 1;
+                while(end < query.length() && Character.isJavaIdentifierPart(query.charAt(end))) {
+                    end++;
+                }
+                String name = query.substring(i + 1, end);
+                if(params == null || !params.containsKey(name)) {
+                    throw new IllegalArgumentException("No value for parameter [" + name + "] of query " + query);
+                }
+                Object value = params.get(name);
+                if(value instanceof Collection) {
+                    Collection<?> collection = (Collection<?>) value;
+                    int n = 0;
+                    for(Object element : collection) {
+                        sql.append(n++ == 0 ? "?" : ", ?");
+                        values.add(element);
+                    }
+                    if(n == 0) {
+                        sql.append("NULL");
+                    }
+                } else {
+                    sql.append('?');
+                    values.add(value);
+                }
+                i = end;
+            } else {
+                sql.append(c);
+                i++;
+            }
+        }
+        return sql.toString();
+    }
+
+}
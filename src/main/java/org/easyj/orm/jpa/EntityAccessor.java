@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.jpa;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.util.StringUtils;
+
+/**
+ * Getters and setters of an entity resolved once and reused by {@link JPAEntityService}
+ * <br><br>
+ * Holds the {@code getId}/{@code setId} pair used to copy generated ids back to saved
+ * entities and the getter chains of every {@code findByUK} parameter, so neither
+ * method lookups nor query parsing happen per call.
+ * <br><br>
+ * Accessors are cached {@code Method}s: a {@code MethodHandle} held per class in an
+ * instance field is not constant-folded by the JIT, so it would not be faster here.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+class EntityAccessor {
+
+    private final Method getId;
+    private final Method setId;
+    private final List<UniqueKeyGetter> uniqueKey;
+
+    /**
+     * @param klazz entity {@code Class}
+     * @param findByUK the entity {@code findByUK} query or null if it declares none
+     */
+    EntityAccessor(Class<?> klazz, NamedQueryInfo findByUK) {
+        getId = findMethod(klazz, "getId");
+        setId = getId == null ? null : findMethod(klazz, "setId", getId.getReturnType());
+
+        if(findByUK == null) {
+            uniqueKey = null;
+        } else {
+            List<UniqueKeyGetter> getters = new ArrayList<UniqueKeyGetter>();
+            for(NamedQueryInfo.Parameter param : findByUK.getParameters()) {
+                getters.add(new UniqueKeyGetter(klazz, param.getName(), param.getPath()));
+            }
+            uniqueKey = Collections.unmodifiableList(getters);
+        }
+    }
+
+    /**
+     * Copies the id of one instance to the other, if the entity has {@code getId} and {@code setId}
+     *
+     * @param from instance to read the id from
+     * @param to instance to write the id to
+     */
+    void copyId(Object from, Object to) throws IllegalAccessException, InvocationTargetException {
+        if(setId != null) {
+            setId.invoke(to, getId.invoke(from));
+        }
+    }
+
+    /**
+     * Reads the {@code findByUK} parameter values from the entity
+     *
+     * @param entity entity to read from
+     * @return parameters keyed by name, or null if the entity declares no {@code findByUK} query
+     */
+    Map<String, Object> getUniqueKeyParams(Object entity) {
+        if(uniqueKey == null) {
+            return null;
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        for(UniqueKeyGetter getter : uniqueKey) {
+            params.put(getter.param, getter.get(entity));
+        }
+        return params;
+    }
+
+    private static Method findMethod(Class<?> klazz, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = klazz.getMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return method;
+        } catch(NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Getter chain of a property path, resolved from the declared return types.
+     * Properties that cannot be resolved upfront are looked up on the runtime
+     * value, and properties that cannot be read at all are skipped.
+     */
+    private static class UniqueKeyGetter {
+
+        private final String param;
+        private final String[] path;
+        private final Method[] getters;
+
+        UniqueKeyGetter(Class<?> klazz, String param, String[] path) {
+            this.param = param;
+            this.path = path;
+            this.getters = new Method[path.length];
+
+            Class<?> type = klazz;
+            for(int i = 0; i < path.length && type != null; i++) {
+                getters[i] = findMethod(type, "get" + StringUtils.capitalize(path[i]));
+                type = getters[i] == null ? null : getters[i].getReturnType();
+            }
+        }
+
+        Object get(Object entity) {
+            Object value = entity;
+            for(int i = 0; i < path.length && value != null; i++) {
+                try {
+                    Method getter = getters[i];
+                    if(getter == null || !getter.getDeclaringClass().isInstance(value)) {
+                        getter = value.getClass().getMethod("get" + StringUtils.capitalize(path[i]));
+                    }
+                    value = getter.invoke(value);
+                } catch(Exception silent) {}
+            }
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Routes reads of the JPA {@code Daos} to a pool of read replicas
+ * <br><br>
+ * A read is sent to a replica when it runs outside a transaction or in a read-only transaction,
+ * which is the case of every finder called on its own. Reads inside read-write transactions stay
+ * on the primary, unless {@link #setRouteReadWriteTransactions(boolean)} is enabled.
+ * Writes always go to the primary {@code @PersistenceContext}.
+ * <br><br>
+ * Within a transaction all reads use the same replica, and once the transaction writes,
+ * every following read goes to the primary, so a transaction always reads its own writes.
+ * Reads within a {@link UnitOfWork} stay on the primary too.
+ * <br><br>
+ * Replicas are picked round-robin or by the least number of reads in flight. Each replica
+ * {@code EntityManagerFactory} is accessed through a Spring shared {@code EntityManager},
+ * just as the primary one, so the same configuration works with any database, including
+ * two local H2 instances. Declare the router as a bean to have it injected into the {@code Daos}.
+ * If the replica factories are beans too, the primary one must be named as the
+ * {@code defaultPersistenceUnitName} of the {@code PersistenceAnnotationBeanPostProcessor}.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class EntityManagerRouter {
+
+    public static enum Strategy {ROUND_ROBIN, LEAST_LOADED};
+
+    private final Object writeKey = new Object();
+    private final Object replicaKey = new Object();
+
+    private volatile List<Replica> replicas = Collections.emptyList();
+    private volatile Strategy strategy = Strategy.ROUND_ROBIN;
+    private volatile boolean routeReadWriteTransactions;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public EntityManagerRouter() {
+    }
+
+    public EntityManagerRouter(List<EntityManagerFactory> replicas) {
+        setReplicas(replicas);
+    }
+
+    /**
+     * Picks the replica for a read and counts it as in flight until {@link #release(org.easyj.orm.jpa.EntityManagerRouter.Replica)}
+     *
+     * @return replica to read from, or null if the read must go to the primary
+     */
+    public Replica route() {
+        List<Replica> current = replicas;
+        if(current.isEmpty() || !isRoutable()) {
+            return null;
+        }
+
+        Replica replica = null;
+        boolean synchronizing = TransactionSynchronizationManager.isSynchronizationActive();
+        if(synchronizing) {
+            replica = (Replica) TransactionSynchronizationManager.getResource(replicaKey);
+        }
+        if(replica == null) {
+            replica = select(current);
+            if(synchronizing) {
+                bind(replicaKey, replica);
+            }
+        }
+        replica.inFlight.incrementAndGet();
+        replica.reads.incrementAndGet();
+        return replica;
+    }
+
+    /**
+     * Ends a read started by {@link #route()}
+     *
+     * @param replica replica returned by {@link #route()}, may be null
+     */
+    public void release(Replica replica) {
+        if(replica != null) {
+            replica.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Marks the current transaction as a writer, sending its following reads to the primary
+     */
+    public void markWrite() {
+        if(TransactionSynchronizationManager.isSynchronizationActive()
+                && TransactionSynchronizationManager.getResource(writeKey) == null) {
+            bind(writeKey, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return true if the current transaction has written through a {@code Dao}
+     */
+    public boolean isWriteMarked() {
+        return TransactionSynchronizationManager.getResource(writeKey) != null;
+    }
+
+    private boolean isRoutable() {
+        if(isWriteMarked() || UnitOfWork.isActive()) {
+            return false;
+        }
+        return !TransactionSynchronizationManager.isActualTransactionActive()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                || routeReadWriteTransactions;
+    }
+
+    private Replica select(List<Replica> current) {
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % current.size();
+        if(strategy == Strategy.ROUND_ROBIN) {
+            return current.get(start);
+        }
+
+        Replica selected = null;
+        for(int i = 0; i < current.size(); i++) {
+            Replica replica = current.get((start + i) % current.size());
+            if(selected == null || replica.inFlight.get() < selected.inFlight.get()) {
+                selected = replica;
+            }
+        }
+        return selected;
+    }
+
+    private void bind(final Object key, Object value) {
+        TransactionSynchronizationManager.bindResource(key, value);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(key);
+            }
+        });
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Sets the replica {@code EntityManagerFactories}. An empty list sends every read to the primary.
+     *
+     * @param factories replica {@code EntityManagerFactories}
+     */
+    public void setReplicas(List<EntityManagerFactory> factories) {
+        List<Replica> list = new ArrayList<Replica>(factories.size());
+        for(EntityManagerFactory factory : factories) {
+            list.add(new Replica(factory));
+        }
+        this.replicas = Collections.unmodifiableList(list);
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public boolean isRouteReadWriteTransactions() {
+        return routeReadWriteTransactions;
+    }
+
+    /**
+     * Sets whether reads inside read-write transactions go to replicas until the transaction first writes.
+     * Off by default, since entities read from a replica are not managed by the primary
+     * persistence context and their changes are only written by an explicit {@code save}.
+     *
+     * @param routeReadWriteTransactions true to route reads of read-write transactions
+     */
+    public void setRouteReadWriteTransactions(boolean routeReadWriteTransactions) {
+        this.routeReadWriteTransactions = routeReadWriteTransactions;
+    }
+
+    /**
+     * A read replica and its load
+     */
+    public static final class Replica {
+
+        private final EntityManagerFactory entityManagerFactory;
+        private final EntityManager entityManager;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong reads = new AtomicLong();
+
+        Replica(EntityManagerFactory entityManagerFactory) {
+            this.entityManagerFactory = entityManagerFactory;
+            this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        }
+
+        public EntityManagerFactory getEntityManagerFactory() {
+            return entityManagerFactory;
+        }
+
+        /**
+         * @return shared {@code EntityManager} bound to the current transaction, if any
+         */
+        public EntityManager getEntityManager() {
+            return entityManager;
+        }
+
+        /**
+         * @return number of reads currently running on this replica
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return number of reads routed to this replica
+         */
+        public long getReads() {
+            return reads.get();
+        }
+
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm.jpa;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.PostInsertIdentifierGenerator;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.type.Type;
+
+/**
+ * Per entity {@code INSERT} statement and column bindings read once from the Hibernate persister,
+ * used by {@link BulkInsertWork}
+ * <br><br>
+ * Only entities mapped to a single table without inheritance are supported. Ids generated by the
+ * database ({@code IDENTITY}) are left out of the statement and are not copied back to the entities.
+ * Any other id generator is called for each entity before it is bound.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+class InsertMetadata {
+
+    /**
+     * Maximum number of parameters bound to one statement, under the limit of most drivers
+     */
+    static final int MAX_PARAMETERS = 2000;
+
+    private static final int MAX_CACHED_STATEMENTS = 16;
+
+    private final SingleTableEntityPersister persister;
+    private final boolean generatedId;
+    private final int idSpan;
+    private final int[] properties;
+    private final Type[] types;
+    private final int[] spans;
+    private final int versionProperty;
+    private final int columnCount;
+    private final String prefix;
+    private final String row;
+
+    private final ConcurrentMap<Integer, String> statements = new ConcurrentHashMap<Integer, String>();
+
+    /**
+     * @param entityPersister persister of the entity
+     * @throws IllegalArgumentException if the entity is not mapped to a single table without inheritance
+     */
+    InsertMetadata(EntityPersister entityPersister) {
+        if(!(entityPersister instanceof SingleTableEntityPersister)
+                || entityPersister.isInherited()
+                || ((SingleTableEntityPersister) entityPersister).hasSubclasses()
+                || ((SingleTableEntityPersister) entityPersister).getConstraintOrderedTableNameClosure().length != 1) {
+            throw new IllegalArgumentException("Entity " + entityPersister.getEntityName()
+                    + " is not mapped to a single table without inheritance and cannot be bulk inserted");
+        }
+        persister = (SingleTableEntityPersister) entityPersister;
+        generatedId = persister.getIdentifierGenerator() instanceof PostInsertIdentifierGenerator;
+
+        List<String> columns = new ArrayList<String>();
+        if(!generatedId) {
+            columns.addAll(Arrays.asList(persister.getIdentifierColumnNames()));
+        }
+        idSpan = columns.size();
+
+        boolean[] insertable = persister.getPropertyInsertability();
+        Type[] propertyTypes = persister.getPropertyTypes();
+        List<Integer> found = new ArrayList<Integer>();
+        for(int i = 0; i < propertyTypes.length; i++) {
+            String[] names = persister.getPropertyColumnNames(i);
+            if(insertable[i] && !propertyTypes[i].isCollectionType() && names.length > 0) {
+                found.add(i);
+                columns.addAll(Arrays.asList(names));
+            }
+        }
+        properties = new int[found.size()];
+        types = new Type[found.size()];
+        spans = new int[found.size()];
+        for(int i = 0; i < properties.length; i++) {
+            properties[i] = found.get(i);
+            types[i] = propertyTypes[properties[i]];
+            spans[i] = persister.getPropertyColumnNames(properties[i]).length;
+        }
+        versionProperty = persister.isVersioned() ? persister.getVersionProperty() : -1;
+        columnCount = columns.size();
+
+        StringBuilder sql = new StringBuilder("insert into ").append(persister.getTableName()).append(" (");
+        StringBuilder values = new StringBuilder("(");
+        for(int i = 0; i < columns.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns.get(i));
+            values.append(i == 0 ? "?" : ", ?");
+        }
+        prefix = sql.append(") values ").toString();
+        row = values.append(")").toString();
+    }
+
+    /**
+     * @return maximum number of rows of one multi-row statement
+     */
+    int getRowsPerStatement() {
+        return Math.max(1, MAX_PARAMETERS / Math.max(1, columnCount));
+    }
+
+    /**
+     * Returns the {@code INSERT} statement for a number of rows, cached per number of rows
+     *
+     * @param rows number of rows in the {@code VALUES} clause
+     * @return SQL statement
+     */
+    String getInsertSql(int rows) {
+        String sql = statements.get(rows);
+        if(sql == null) {
+            StringBuilder builder = new StringBuilder(prefix.length() + rows * (row.length() + 2)).append(prefix);
+            for(int i = 0; i < rows; i++) {
+                builder.append(i == 0 ? "" : ", ").append(row);
+            }
+            sql = builder.toString();
+            if(statements.size() < MAX_CACHED_STATEMENTS) {
+                statements.putIfAbsent(rows, sql);
+            }
+        }
+        return sql;
+    }
+
+    /**
+     * Assigns the id and initial version of an entity, then binds its columns
+     *
+     * @param ps statement to bind to
+     * @param index index of the first parameter to bind
+     * @param entity entity to be inserted
+     * @param session current session, used by id generators and types
+     * @return index of the parameter after the last one bound
+     */
+    int bind(PreparedStatement ps, int index, Object entity, SessionImplementor session) throws SQLException {
+        if(!generatedId) {
+            Serializable id = persister.getIdentifierGenerator().generate(session, entity);
+            persister.setIdentifier(entity, id, session);
+            persister.getIdentifierType().nullSafeSet(ps, id, index, session);
+            index += idSpan;
+        }
+        Object[] values = persister.getPropertyValues(entity);
+        if(versionProperty >= 0 && values[versionProperty] == null) {
+            values[versionProperty] = persister.getVersionType().seed(session);
+            persister.setPropertyValue(entity, versionProperty, values[versionProperty]);
+        }
+        for(int i = 0; i < properties.length; i++) {
+            types[i].nullSafeSet(ps, values[properties[i]], index, session);
+            index += spans[i];
+        }
+        return index;
+    }
+
+}
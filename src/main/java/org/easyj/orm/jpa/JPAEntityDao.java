@@ -17,9 +17,12 @@
 package org.easyj.orm.jpa;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.persistence.EntityExistsException;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -28,12 +31,19 @@ import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 import javax.persistence.RollbackException;
+import org.easyj.orm.ColumnBatch;
 import org.easyj.orm.EntityService;
+import org.easyj.orm.QueryMetrics;
+import org.easyj.orm.SingleDao.QueryType;
+import org.easyj.orm.jpa.EntityManagerRouter.Replica;
 import org.hibernate.PropertyValueException;
+import org.hibernate.Session;
 import org.hibernate.exception.ConstraintViolationException;
 import org.hibernate.exception.DataException;
+import org.hibernate.proxy.HibernateProxyHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -53,6 +63,12 @@ public class JPAEntityDao {
 
     protected Logger logger = LoggerFactory.getLogger(getClass());
 
+    private volatile QueryMetrics metrics;
+
+    private EntityManagerRouter router;
+
+    private final ConcurrentMap<Class<?>, JPAEntityMetadata> metadata = new ConcurrentHashMap<Class<?>, JPAEntityMetadata>();
+
     /**
      * Persiste a entidade no banco de dados de acordo com o mapeamento do JPA
      *
@@ -67,9 +83,13 @@ public class JPAEntityDao {
         T newT = null;
         if(t != null) {
             try {
-                logger.debug("Saving entity: {} [{}]", t.getClass().getSimpleName(), t.toString());
-                newT = merge(t);
-                logger.debug("Entity saved successfully: {} [{}]", t.getClass().getSimpleName(), newT);
+                if(logger.isDebugEnabled()) {
+                    logger.debug("Saving entity: {} [{}]", t.getClass().getSimpleName(), t);
+                }
+                newT = write(t);
+                if(logger.isDebugEnabled()) {
+                    logger.debug("Entity saved successfully: {} [{}]", t.getClass().getSimpleName(), newT);
+                }
             } catch(EntityExistsException e) {
                 logger.error("Error saving entity: Entity already exists");
                 throw e;
@@ -80,7 +100,7 @@ public class JPAEntityDao {
                 String msg;
                 if(e.getCause() instanceof ConstraintViolationException) {
                     msg = e.getCause().getCause().getMessage();
-                    logger.error("Error saving entity: some constraint violation occurred: [{}] - {}", t.toString(), msg);
+                    logger.error("Error saving entity: some constraint violation occurred: [{}] - {}", t, msg);
                     if(msg.toLowerCase().indexOf("duplicate") > -1) {
                         throw new EntityExistsException(msg);
                     } else {
@@ -125,18 +145,29 @@ public class JPAEntityDao {
         return ret;
     }
 
+    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public <T> T load(Class<T> klazz, Object param) {
-        return getEm().find(klazz, param);
+        Replica replica = route();
+        try {
+            return getEm(replica).find(klazz, param);
+        } finally {
+            release(replica);
+        }
     }
 
+    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public <T> T loadSingleByNamedQuery(String query, Class<T> klazz, Map<String, Object> params) {
         T t = null;
         try {
-            logger.debug("Loading single entity {} using @NamedQuery=[{}], params=[{}]", new Object[] {klazz.getSimpleName(), query, params});
+            if(logger.isDebugEnabled()) {
+                logger.debug("Loading single entity {} using @NamedQuery=[{}], params=[{}]", new Object[] {klazz.getSimpleName(), query, params});
+            }
             t = (T) getSingleResultByNamedQuery(query, params);
-            logger.debug("Entity loaded successfully: {} [{}]", klazz.getSimpleName(), t);
+            if(logger.isDebugEnabled()) {
+                logger.debug("Entity loaded successfully: {} [{}]", klazz.getSimpleName(), t);
+            }
         } catch(IllegalArgumentException e) {
             logger.error("Entity not loaded: Could not find @NamedQuery=[{}] or @NamedQuery is invalid", query, e);
         } catch(NoResultException e) {
@@ -147,13 +178,18 @@ public class JPAEntityDao {
         return t;
     }
 
+    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public <T> T loadSingleByQuery(String query, Class<T> klazz, Map<String, Object> params) {
         T t = null;
         try {
-            logger.debug("Loading single entity {} using JPQuery=[{}], params=[{}]", new Object[] {klazz.getSimpleName(), query, params});
+            if(logger.isDebugEnabled()) {
+                logger.debug("Loading single entity {} using JPQuery=[{}], params=[{}]", new Object[] {klazz.getSimpleName(), query, params});
+            }
             t = (T) getSingleResultByQuery(query, params);
-            logger.debug("Entity loaded successfully: {} [{}]", klazz.getSimpleName(), t);
+            if(logger.isDebugEnabled()) {
+                logger.debug("Entity loaded successfully: {} [{}]", klazz.getSimpleName(), t);
+            }
         } catch(IllegalArgumentException e) {
             logger.error("Entity not loaded: Invalid JPQuery=[{}]", query, e);
         } catch(NoResultException e) {
@@ -164,6 +200,7 @@ public class JPAEntityDao {
         return t;
     }
 
+    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public Object loadSingleByNativeQuery(String query, Map<String, Object> params) {
         Object o = null;
@@ -179,13 +216,18 @@ public class JPAEntityDao {
         return o;
     }
 
+    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public <T> T loadSingleByNativeQuery(String query, Class<T> klazz, Map<String, Object> params) {
         T t = null;
         try {
-            logger.debug("Loading single entity {} using NativeQuery=[{}], params=[{}]", new Object[] {klazz.getSimpleName(), query, params});
+            if(logger.isDebugEnabled()) {
+                logger.debug("Loading single entity {} using NativeQuery=[{}], params=[{}]", new Object[] {klazz.getSimpleName(), query, params});
+            }
             t = (T) getSingleResultByNativeQuery(query, params);
-            logger.debug("Entity loaded successfully: {} [{}]", klazz.getSimpleName(), t);
+            if(logger.isDebugEnabled()) {
+                logger.debug("Entity loaded successfully: {} [{}]", klazz.getSimpleName(), t);
+            }
         } catch (NoResultException e) {
             logger.debug("Entity not loaded: NativeQuery=[{}], params=[{}] returned nothing", query, params);
         } catch (NonUniqueResultException e) {
@@ -202,32 +244,43 @@ public class JPAEntityDao {
      * @param params Parameters {@code Map} with key matching parameters in {@code @NamedQuery}. For queries without parameters, pass an empty {@code Map}.
      * @return entity list returned from the database
      */
+    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public <T> List<T> loadListByNamedQuery(String query, Class<T> klazz, Map<String, Object> params) {
         List<T> result = new ArrayList<T>();
         try {
-            logger.debug("Loading entity list {} using @NamedQuery=[{}], params=[{}]", new Object[] {klazz.getSimpleName(), query, params});
+            if(logger.isDebugEnabled()) {
+                logger.debug("Loading entity list {} using @NamedQuery=[{}], params=[{}]", new Object[] {klazz.getSimpleName(), query, params});
+            }
             result = getResultListByNamedQuery(query, params);
-            logger.debug("Entity list loaded successfully: [{}]", klazz.getSimpleName());
+            if(logger.isDebugEnabled()) {
+                logger.debug("Entity list loaded successfully: [{}]", klazz.getSimpleName());
+            }
         } catch(IllegalArgumentException e) {
             logger.error("Entity list not loaded: Could not find @NamedQuery=[{}] or @NamedQuery is invalid", query, e);
         }
         return result;
     }
 
+    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public <T> List<T> loadListByQuery(String query, Class<T> klazz, Map<String, Object> params) {
         List<T> result = new ArrayList<T>();
         try {
-            logger.debug("Loading entity list {} using JPQuery=[{}], params=[{}]", new Object[] {klazz.getSimpleName(), query, params});
+            if(logger.isDebugEnabled()) {
+                logger.debug("Loading entity list {} using JPQuery=[{}], params=[{}]", new Object[] {klazz.getSimpleName(), query, params});
+            }
             result = getResultListByQuery(query, params);
-            logger.debug("Entity list loaded successfully: [{}]", klazz.getSimpleName());
+            if(logger.isDebugEnabled()) {
+                logger.debug("Entity list loaded successfully: [{}]", klazz.getSimpleName());
+            }
         } catch(IllegalArgumentException e) {
             logger.error("Entity list not loaded: Invalid JPQuery=[{}]", query, e);
         }
         return result;
     }
 
+    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public List<Object[]> loadListByQuery(String query, Map<String, Object> params) {
         List result = new ArrayList();
@@ -241,29 +294,92 @@ public class JPAEntityDao {
         return result;
     }
 
+    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public List<Object[]> loadListByNativeQuery(String query, Map<String, Object> params) {
         return (List<Object[]>) getResultListByNativeQuery(query, params);
     }
 
+    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public <T> List<T> loadListByNativeQuery(String query, Class<T> klazz, Map<String, Object> params) {
         return (List<T>) getResultListByNativeQuery(query, params);
     }
 
-    private <T> T merge(T t) {
+    /**
+     * Loads the result of a native query by column, read straight from JDBC into primitive arrays
+     *
+     * @param query native query with named parameters
+     * @param params query parameters
+     * @param types column types in select order, or none to infer them from the result set metadata
+     * @return query result by column
+     */
+    @Transactional(readOnly = true)
+    public ColumnBatch loadColumnsByNativeQuery(String query, Map<String, Object> params, ColumnBatch.Type... types) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        if(params != null) {
+            values.putAll(params);
+        }
+        Integer startPosition = (Integer) values.remove(EntityService.PARAM_START_POSITION);
+        Integer maxResults = (Integer) values.remove(EntityService.PARAM_MAX_RESULTS);
+
+        ColumnBatchWork work = new ColumnBatchWork(query, values, types,
+                startPosition == null ? 0 : startPosition.intValue(),
+                maxResults == null ? 0 : maxResults.intValue(), 0);
+        long start = startTimer();
+        Replica replica = route();
+        try {
+            ColumnBatch batch = getEm(replica).unwrap(Session.class).doReturningWork(work);
+            record(query, QueryType.NATIVE, start, batch.getRowCount(), null);
+            return batch;
+        } catch(RuntimeException e) {
+            record(query, QueryType.NATIVE, start, 0, e);
+            throw e;
+        } finally {
+            release(replica);
+            closeEm();
+        }
+    }
+
+    private <T> T write(T t) {
         T newT = null;
+        long start = startTimer();
+        markWrite();
         try {
-            newT = em.merge(t);
+            if(isNew(t)) {
+                em.persist(t);
+                newT = t;
+            } else {
+                newT = em.merge(t);
+            }
+            record(start == 0 ? null : "save " + t.getClass().getSimpleName(), null, start, 1, null);
+        } catch(RuntimeException e) {
+            record(start == 0 ? null : "save " + t.getClass().getSimpleName(), null, start, 0, e);
+            throw e;
         } finally {
             closeEm();
         }
         return newT;
     }
 
+    private boolean isNew(Object entity) {
+        Class<?> klazz = HibernateProxyHelper.getClassWithoutInitializingProxy(entity);
+        JPAEntityMetadata meta = metadata.get(klazz);
+        if(meta == null) {
+            meta = new JPAEntityMetadata(getEm().getMetamodel().entity(klazz));
+            JPAEntityMetadata existing = metadata.putIfAbsent(klazz, meta);
+            if(existing != null) {
+                meta = existing;
+            }
+        }
+        return meta.isNew(entity);
+    }
+
     private int executeUpdate(String query, Map<String, Object> params) {
         Query q;
         int result = -1;
+        long start = startTimer();
+        markWrite();
         try {
             if(query.toLowerCase().startsWith("update ") || query.toLowerCase().startsWith("insert into") || query.toLowerCase().startsWith("delete from ")) {
                 q = em.createNativeQuery(query);
@@ -273,6 +389,10 @@ public class JPAEntityDao {
             if(setParameters(q, params)) {
                 result = q.executeUpdate();
             }
+            record(query, null, start, Math.max(0, result), null);
+        } catch(RuntimeException e) {
+            record(query, null, start, 0, e);
+            throw e;
         } finally {
             closeEm();
         }
@@ -294,18 +414,29 @@ public class JPAEntityDao {
     private Object getSingleResult(String query, Map<String, Object> params, String queryType) {
         Object o = null;
         Query q;
+        long start = startTimer();
+        Replica replica = route();
         try {
+            EntityManager readEm = getEm(replica);
             if("native".equals(queryType)) {
-                q = em.createNativeQuery(query);
+                q = readEm.createNativeQuery(query);
             } else if("named".equals(queryType)) {
-                q = em.createNamedQuery(query);
+                q = readEm.createNamedQuery(query);
             } else {
-                q = em.createQuery(query);
+                q = readEm.createQuery(query);
             }
             if(setParameters(q, params)) {
                 o = q.getSingleResult();
             }
+            record(query, toQueryType(queryType), start, o == null ? 0 : 1, null);
+        } catch(NoResultException e) {
+            record(query, toQueryType(queryType), start, 0, null);
+            throw e;
+        } catch(RuntimeException e) {
+            record(query, toQueryType(queryType), start, 0, e);
+            throw e;
         } finally {
+            release(replica);
             closeEm();
         }
         return o;
@@ -326,23 +457,51 @@ public class JPAEntityDao {
     private List getResultList(String query, Map<String, Object> params, String queryType) {
         List result = new ArrayList();
         Query q;
+        long start = startTimer();
+        Replica replica = route();
         try {
+            EntityManager readEm = getEm(replica);
             if("native".equals(queryType)) {
-                q = em.createNativeQuery(query);
+                q = readEm.createNativeQuery(query);
             } else if("named".equals(queryType)) {
-                q = em.createNamedQuery(query);
+                q = readEm.createNamedQuery(query);
             } else {
-                q = em.createQuery(query);
+                q = readEm.createQuery(query);
             }
             if(setParameters(q, params)) {
                 result = q.getResultList();
             }
+            record(query, toQueryType(queryType), start, result.size(), null);
+        } catch(RuntimeException e) {
+            record(query, toQueryType(queryType), start, 0, e);
+            throw e;
         } finally {
+            release(replica);
             closeEm();
         }
         return result;
     }
 
+    private QueryType toQueryType(String queryType) {
+        if("native".equals(queryType)) {
+            return QueryType.NATIVE;
+        } else if("named".equals(queryType)) {
+            return QueryType.NAMED;
+        }
+        return QueryType.JPQL;
+    }
+
+    private long startTimer() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    private void record(String name, QueryType type, long start, int rows, Throwable error) {
+        QueryMetrics m = metrics;
+        if(m != null && start != 0) {
+            m.record(name, type, System.nanoTime() - start, rows, error);
+        }
+    }
+
     /**
      * Adiciona mapa de parâmetros a query
      *
@@ -352,17 +511,20 @@ public class JPAEntityDao {
      */
     private boolean setParameters(Query q, Map<String, Object> params) {
         if(q != null && params != null) {
-            Integer maxResults = (Integer) params.remove(EntityService.PARAM_MAX_RESULTS);
+            Integer maxResults = (Integer) params.get(EntityService.PARAM_MAX_RESULTS);
             if(maxResults != null && maxResults > 0) {
                 q.setMaxResults(maxResults.intValue());
             }
 
-            Integer startPosition = (Integer) params.remove(EntityService.PARAM_START_POSITION);
+            Integer startPosition = (Integer) params.get(EntityService.PARAM_START_POSITION);
             if(startPosition != null && startPosition > -1) {
                 q.setFirstResult(startPosition.intValue());
             }
 
             for(Entry<String, Object> o : params.entrySet()) {
+                if(EntityService.PARAM_MAX_RESULTS.equals(o.getKey()) || EntityService.PARAM_START_POSITION.equals(o.getKey())) {
+                    continue;
+                }
                 try {
                     q.setParameter(o.getKey().trim(), o.getValue());
                 } catch(IllegalArgumentException ex) {
@@ -374,6 +536,24 @@ public class JPAEntityDao {
         return true;
     }
 
+    /**
+     * Returns the metrics receiving the timing of every database operation
+     *
+     * @return query metrics or null if operations are not measured
+     */
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics receiving the timing of every database operation
+     *
+     * @param metrics query metrics or null to stop measuring
+     */
+    public void setMetrics(QueryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Sets the {@code EntityManager}
      * @param em {@code EntityManager}
@@ -390,10 +570,52 @@ public class JPAEntityDao {
         return em;
     }
 
+    /**
+     * Closes the {@code EntityManager} after an operation, unless a {@link UnitOfWork} keeps it open
+     */
     public void closeEm() {
-        if(getEm().isOpen()) {
+        if(!UnitOfWork.isActive() && getEm().isOpen()) {
             getEm().close();
         }
     }
 
+    /**
+     * Returns the router sending reads to replicas
+     *
+     * @return router or null if every operation goes to the primary {@code EntityManager}
+     */
+    public EntityManagerRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Sets the router sending reads to replicas
+     *
+     * @param router router or null to send every operation to the primary {@code EntityManager}
+     */
+    @Autowired(required = false)
+    public void setRouter(EntityManagerRouter router) {
+        this.router = router;
+    }
+
+    private Replica route() {
+        return router == null ? null : router.route();
+    }
+
+    private void release(Replica replica) {
+        if(replica != null) {
+            router.release(replica);
+        }
+    }
+
+    private void markWrite() {
+        if(router != null) {
+            router.markWrite();
+        }
+    }
+
+    private EntityManager getEm(Replica replica) {
+        return replica == null ? getEm() : replica.getEntityManager();
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.jpa;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.persistence.PersistenceException;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * Per entity metadata read once from the JPA metamodel
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+class JPAEntityMetadata {
+
+    private final Class<?> type;
+    private final Map<String, Member> members;
+    private final Map<String, Method> setters;
+    private final String idAttribute;
+    private final boolean primitiveId;
+    private final String versionAttribute;
+    private final boolean primitiveVersion;
+    private final boolean numericVersion;
+
+    JPAEntityMetadata(EntityType<?> entityType) {
+        this.type = entityType.getJavaType();
+
+        Map<String, Member> found = new HashMap<String, Member>();
+        Map<String, Method> foundSetters = new HashMap<String, Method>();
+        for(Attribute<?, ?> attribute : entityType.getAttributes()) {
+            Member member = attribute.getJavaMember();
+            if(member instanceof AccessibleObject) {
+                ((AccessibleObject) member).setAccessible(true);
+            }
+            found.put(attribute.getName(), member);
+            if(member instanceof Method) {
+                Method setter = findSetter((Method) member, attribute.getName());
+                if(setter != null) {
+                    foundSetters.put(attribute.getName(), setter);
+                }
+            }
+        }
+        this.members = Collections.unmodifiableMap(found);
+        this.setters = Collections.unmodifiableMap(foundSetters);
+
+        String id = null;
+        boolean primitive = false;
+        String version = null;
+        Class<?> versionType = null;
+        for(SingularAttribute<?, ?> attribute : entityType.getSingularAttributes()) {
+            if(attribute.isId() && entityType.hasSingleIdAttribute()) {
+                id = attribute.getName();
+                primitive = attribute.getJavaType().isPrimitive();
+            } else if(attribute.isVersion()) {
+                version = attribute.getName();
+                versionType = attribute.getJavaType();
+            }
+        }
+        this.idAttribute = id;
+        this.primitiveId = primitive;
+        this.versionAttribute = version;
+        this.primitiveVersion = versionType != null && versionType.isPrimitive();
+        this.numericVersion = versionType != null && (Number.class.isAssignableFrom(versionType)
+                || versionType == int.class || versionType == long.class || versionType == short.class);
+    }
+
+    /**
+     * @return entity {@code Class}
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return name of the id attribute, or null if the entity has a composite {@code @IdClass} key
+     */
+    public String getIdAttribute() {
+        return idAttribute;
+    }
+
+    /**
+     * @return name of the {@code @Version} attribute if it is numeric, or null
+     */
+    public String getNumericVersionAttribute() {
+        return numericVersion ? versionAttribute : null;
+    }
+
+    /**
+     * Tells whether an entity has never been persisted, without hitting the database.
+     * <br><br>
+     * A {@code @Version} attribute of a wrapper type is null only before the first insert,
+     * so it decides when mapped. Otherwise the entity is new when its id is null, or zero
+     * for primitive ids. Entities with composite keys are never considered new.
+     *
+     * @param entity entity to check
+     * @return true if the entity is new
+     */
+    public boolean isNew(Object entity) {
+        if(versionAttribute != null && !primitiveVersion) {
+            return getValue(entity, versionAttribute) == null;
+        }
+        if(idAttribute == null) {
+            return false;
+        }
+        Object id = getValue(entity, idAttribute);
+        if(primitiveId && id instanceof Number) {
+            return ((Number) id).longValue() == 0;
+        }
+        return id == null;
+    }
+
+    /**
+     * Reads a persistent attribute directly from the entity, unwrapping lazy proxies
+     *
+     * @param entity entity to read from
+     * @param attribute persistent attribute name
+     * @return attribute value
+     * @throws IllegalArgumentException if the attribute is not mapped
+     */
+    public Object getValue(Object entity, String attribute) {
+        Member member = members.get(attribute);
+        if(member == null) {
+            throw new IllegalArgumentException("Unknown attribute [" + attribute + "] for entity " + type.getName());
+        }
+        if(entity instanceof HibernateProxy) {
+            entity = ((HibernateProxy) entity).getHibernateLazyInitializer().getImplementation();
+        }
+        try {
+            if(member instanceof Field) {
+                return ((Field) member).get(entity);
+            }
+            return ((Method) member).invoke(entity);
+        } catch(IllegalAccessException ex) {
+            throw new PersistenceException("Could not read attribute [" + attribute + "] from " + type.getName(), ex);
+        } catch(InvocationTargetException ex) {
+            throw new PersistenceException("Could not read attribute [" + attribute + "] from " + type.getName(), ex.getCause());
+        }
+    }
+
+    /**
+     * Writes a persistent attribute directly to the entity, unwrapping lazy proxies
+     *
+     * @param entity entity to write to
+     * @param attribute persistent attribute name
+     * @param value attribute value
+     * @throws IllegalArgumentException if the attribute is not mapped or has no setter
+     */
+    public void setValue(Object entity, String attribute, Object value) {
+        Member member = members.get(attribute);
+        if(member == null || (!(member instanceof Field) && !setters.containsKey(attribute))) {
+            throw new IllegalArgumentException("Attribute [" + attribute + "] of entity " + type.getName() + " cannot be written");
+        }
+        if(entity instanceof HibernateProxy) {
+            entity = ((HibernateProxy) entity).getHibernateLazyInitializer().getImplementation();
+        }
+        try {
+            if(member instanceof Field) {
+                ((Field) member).set(entity, value);
+            } else {
+                setters.get(attribute).invoke(entity, value);
+            }
+        } catch(IllegalAccessException ex) {
+            throw new PersistenceException("Could not write attribute [" + attribute + "] to " + type.getName(), ex);
+        } catch(InvocationTargetException ex) {
+            throw new PersistenceException("Could not write attribute [" + attribute + "] to " + type.getName(), ex.getCause());
+        }
+    }
+
+    private static Method findSetter(Method getter, String attribute) {
+        try {
+            Method setter = getter.getDeclaringClass().getDeclaredMethod(
+                    "set" + Character.toUpperCase(attribute.charAt(0)) + attribute.substring(1), getter.getReturnType());
+            setter.setAccessible(true);
+            return setter;
+        } catch(NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+}
@@ -16,22 +16,21 @@
 
 package org.easyj.orm.jpa;
 
-import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Resource;
 import javax.persistence.EntityExistsException;
-import javax.persistence.NamedQueries;
-import javax.persistence.NamedQuery;
 import org.easyj.orm.EntityService;
+import org.easyj.orm.FinderQueryCache;
 import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.proxy.HibernateProxyHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
 
 /**
  * Complete JPA {@code @Service} that exposes all needed methods for persistence
@@ -46,8 +45,30 @@ public class JPAEntityService implements EntityService {
     @Resource(name="JPAEntityDao")
     private JPAEntityDao dao;
 
+    @Resource(name="namedQueryRegistry")
+    private NamedQueryRegistry namedQueryRegistry;
+
+    /**
+     * Builds {@code SELECT c FROM <entity> c WHERE c.<param> = :<param> AND ...}
+     */
+    private static final FinderQueryCache.QueryBuilder SELECT_QUERY = new FinderQueryCache.QueryBuilder() {
+        @Override
+        public String build(Class<?> klazz, List<String> paramNames) {
+            StringBuilder query = new StringBuilder("SELECT c FROM ").append(klazz.getSimpleName()).append(" c ");
+            for(int i = 0; i < paramNames.size(); i++) {
+                String key = paramNames.get(i);
+                query.append(i == 0 ? "WHERE" : " AND").append(" c.").append(key).append(" = :").append(key);
+            }
+            return query.toString();
+        }
+    };
+
     protected Logger logger = LoggerFactory.getLogger(getClass());
 
+    private FinderQueryCache queryCache = new FinderQueryCache();
+
+    private final ConcurrentMap<Class<?>, EntityAccessor> accessors = new ConcurrentHashMap<Class<?>, EntityAccessor>();
+
     @Override
     public <T> String save(T t) {
         String ret = EntityService.STATUS_SUCCESS;
@@ -56,15 +77,11 @@ public class JPAEntityService implements EntityService {
         try {
             newT = dao.save(t);
 
-            Method getId = t.getClass().getMethod("getId", new Class[0]);
-
-            t.getClass().getMethod("setId", getId.getReturnType()).invoke(t, getId.invoke(newT, new Object[0]));
+            getAccessor(t.getClass()).copyId(newT, t);
         } catch(EntityExistsException ex) {
             ret = EntityService.STATUS_ERROR_EXISTS;
         } catch(ConstraintViolationException ex) {
             ret = EntityService.STATUS_ERROR_CONSTRAINT_VIOLATION;
-        } catch (NoSuchMethodException ex) {
-            //ignore
         } catch(Exception ex) {
             ret = EntityService.STATUS_ERROR;
         }
@@ -100,10 +117,7 @@ public class JPAEntityService implements EntityService {
         if(query != null) {
             return loadByNamedQuery(klazz.getSimpleName() + ".findByUK", klazz, params);
         }
-        query = "SELECT k FROM " + klazz.getSimpleName() + " c WHERE ";
-        for(String key : params.keySet()) {
-            query += " c." + key + " = :" + key + " ";
-        }
+        query = getQueryCache().get(klazz, "loadUK", paramNames(params), SELECT_QUERY);
         return loadByQuery(query, klazz, params);
     }
 
@@ -114,7 +128,7 @@ public class JPAEntityService implements EntityService {
         if(query != null) {
             return loadListByNamedQuery(namedQuery, klazz, null);
         }
-        query = "SELECT k FROM " + klazz.getSimpleName() + " c ";
+        query = getQueryCache().get(klazz, "loadAll", Collections.<String>emptyList(), SELECT_QUERY);
         return loadListByQuery(query, klazz, null);
     }
 
@@ -125,10 +139,7 @@ public class JPAEntityService implements EntityService {
         if(query != null) {
             return loadListByNamedQuery(namedQuery, klazz, params);
         }
-        query = "SELECT k FROM " + klazz.getSimpleName() + " c WHERE ";
-        for(String key : params.keySet()) {
-            query += " c." + key + " = :" + key + " ";
-        }
+        query = getQueryCache().get(klazz, "loadList", paramNames(params), SELECT_QUERY);
         return loadListByQuery(query, klazz, params);
     }
 
@@ -161,52 +172,71 @@ public class JPAEntityService implements EntityService {
         return this.dao;
     }
 
-    protected <T> Map<String, Object> fillUKParams(T entity) {
-        String query = getNamedQuery(entity.getClass().getSimpleName() + ".findByUK", entity.getClass());
-        if(query == null) {
-            return null;
-        }
+    /**
+     * Returns the cache of queries generated by {@code loadUK}, {@code loadAll} and {@code loadList}
+     *
+     * @return finder query cache
+     */
+    public FinderQueryCache getQueryCache() {
+        return queryCache;
+    }
 
-        Pattern pattern = Pattern.compile("\\S+\\s*=\\s*:\\S+");
-        Matcher matcher = pattern.matcher(query);
-        Matcher param;
-        pattern = Pattern.compile(":\\S+");
-
-        String[] props;
-        String group;
-        Object paramValue;
-        Map<String, Object> ukParams = new HashMap<String, Object>();
-        while(matcher.find()) {
-            group = matcher.group();
-            props = group.split("=")[0].trim().split("\\.");
-            paramValue = entity;
-            for(String prop : props) {
-                try {
-                    paramValue = paramValue.getClass().getMethod("get" + StringUtils.capitalize(prop)).invoke(paramValue);
-                } catch(Exception silent) {}
-            }
-            param = pattern.matcher(group);
-            if(param.find()) {
-                ukParams.put(param.group().replace(":", "").trim(), paramValue);
+    public void setQueryCache(FinderQueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Returns the sorted names of the parameters to be bound, leaving out paging parameters
+     *
+     * @param params parameters {@code Map}. Can be null
+     * @return sorted parameter names
+     */
+    protected List<String> paramNames(Map<String, Object> params) {
+        if(params == null || params.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<String>(params.size());
+        for(String key : params.keySet()) {
+            if(!PARAM_MAX_RESULTS.equals(key) && !PARAM_START_POSITION.equals(key)) {
+                names.add(key);
             }
         }
-            
-        return ukParams;
+        Collections.sort(names);
+        return names;
     }
 
-    protected <T> String getNamedQuery(String queryName, Class<T> klazz){
-        NamedQueries queries = klazz.getAnnotation(NamedQueries.class);
-
-        if(queries != null) {
-            queryName = queryName.toLowerCase();
-            for(NamedQuery named : queries.value()) {
-                if(queryName.equals(named.name().toLowerCase())) {
-                    return named.query();
-                }
+    protected <T> Map<String, Object> fillUKParams(T entity) {
+        return getAccessor(HibernateProxyHelper.getClassWithoutInitializingProxy(entity)).getUniqueKeyParams(entity);
+    }
+
+    /**
+     * Returns the accessors of an entity, resolved on first use
+     *
+     * @param klazz entity {@code Class}
+     * @return entity accessors
+     */
+    EntityAccessor getAccessor(Class<?> klazz) {
+        EntityAccessor accessor = accessors.get(klazz);
+        if(accessor == null) {
+            accessor = new EntityAccessor(klazz, namedQueryRegistry.get(klazz, klazz.getSimpleName() + NamedQueryRegistry.FIND_BY_UK));
+            EntityAccessor existing = accessors.putIfAbsent(klazz, accessor);
+            if(existing != null) {
+                accessor = existing;
             }
         }
+        return accessor;
+    }
+
+    protected <T> String getNamedQuery(String queryName, Class<T> klazz){
+        return namedQueryRegistry.getQuery(klazz, queryName);
+    }
+
+    public NamedQueryRegistry getNamedQueryRegistry() {
+        return namedQueryRegistry;
+    }
 
-        return null;
+    public void setNamedQueryRegistry(NamedQueryRegistry namedQueryRegistry) {
+        this.namedQueryRegistry = namedQueryRegistry;
     }
 
 }
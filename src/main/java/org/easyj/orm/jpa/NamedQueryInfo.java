@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable metadata of a {@code @NamedQuery} declared on an entity
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ * @see NamedQueryRegistry
+ */
+public class NamedQueryInfo {
+
+    private static final Pattern CONDITION = Pattern.compile("([\\w.]+)\\s*=\\s*:(\\w+)");
+
+    private final Class<?> entityClass;
+    private final String name;
+    private final String query;
+    private final List<Parameter> parameters;
+
+    public NamedQueryInfo(Class<?> entityClass, String name, String query) {
+        this.entityClass = entityClass;
+        this.name = name;
+        this.query = query;
+        this.parameters = parseParameters(query);
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns the {@code property = :param} conditions of the query, in order of appearance
+     *
+     * @return parsed conditions
+     */
+    public List<Parameter> getParameters() {
+        return parameters;
+    }
+
+    private static List<Parameter> parseParameters(String query) {
+        List<Parameter> found = new ArrayList<Parameter>();
+        Matcher matcher = CONDITION.matcher(query);
+        while(matcher.find()) {
+            String[] path = matcher.group(1).split("\\.");
+            if(path.length > 1) {
+                String[] relative = new String[path.length - 1];
+                System.arraycopy(path, 1, relative, 0, relative.length);
+                path = relative;
+            }
+            found.add(new Parameter(matcher.group(2), path));
+        }
+        return Collections.unmodifiableList(found);
+    }
+
+    @Override
+    public String toString() {
+        return entityClass.getSimpleName() + "[" + name + "]";
+    }
+
+    /**
+     * Named parameter of the query bound to an entity property path
+     */
+    public static class Parameter {
+
+        private final String name;
+        private final String[] path;
+
+        Parameter(String name, String[] path) {
+            this.name = name;
+            this.path = path;
+        }
+
+        /**
+         * @return parameter name, without the leading colon
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return property path relative to the entity, without the query alias
+         */
+        public String[] getPath() {
+            return path.clone();
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.PersistenceUnit;
+import javax.persistence.metamodel.EntityType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registry of every {@code @NamedQuery} declared on the managed entities
+ * <br><br>
+ * Entities are read from the {@code EntityManagerFactory} metamodel once at startup,
+ * so looking up a query is a plain hash lookup. Query names are matched case-insensitively.
+ * Startup fails if a conventional {@code <Entity>.findByUK} query has no {@code property = :param} condition.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+@Component
+public class NamedQueryRegistry {
+
+    public static final String FIND_BY_UK = ".findByUK";
+
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+
+    @PersistenceUnit
+    private EntityManagerFactory emf;
+
+    private volatile Map<Class<?>, Map<String, NamedQueryInfo>> queries = Collections.emptyMap();
+
+    /**
+     * Scans every managed entity of the {@code EntityManagerFactory}
+     *
+     * @throws IllegalStateException if a conventional query is malformed
+     */
+    @PostConstruct
+    public void init() {
+        Map<Class<?>, Map<String, NamedQueryInfo>> found = new HashMap<Class<?>, Map<String, NamedQueryInfo>>();
+        int total = 0;
+        for(EntityType<?> entity : emf.getMetamodel().getEntities()) {
+            Class<?> klazz = entity.getJavaType();
+            if(klazz == null) {
+                continue;
+            }
+            Map<String, NamedQueryInfo> byName = new HashMap<String, NamedQueryInfo>();
+            for(NamedQuery named : declaredQueries(klazz)) {
+                NamedQueryInfo info = new NamedQueryInfo(klazz, named.name(), named.query());
+                validate(info);
+                byName.put(named.name(), info);
+                byName.put(named.name().toLowerCase(), info);
+                total++;
+            }
+            if(!byName.isEmpty()) {
+                found.put(klazz, Collections.unmodifiableMap(byName));
+            }
+        }
+        queries = Collections.unmodifiableMap(found);
+        logger.debug("Registered {} @NamedQueries from {} entities", total, found.size());
+    }
+
+    /**
+     * Returns the metadata of a {@code @NamedQuery} declared on the entity
+     *
+     * @param klazz entity {@code Class}
+     * @param queryName query name, matched case-insensitively
+     * @return query metadata or null if the entity declares no such query
+     */
+    public NamedQueryInfo get(Class<?> klazz, String queryName) {
+        Map<String, NamedQueryInfo> byName = queries.get(klazz);
+        if(byName == null || queryName == null) {
+            return null;
+        }
+        NamedQueryInfo info = byName.get(queryName);
+        if(info == null) {
+            info = byName.get(queryName.toLowerCase());
+        }
+        return info;
+    }
+
+    /**
+     * Returns the query string of a {@code @NamedQuery} declared on the entity
+     *
+     * @param klazz entity {@code Class}
+     * @param queryName query name, matched case-insensitively
+     * @return query string or null if the entity declares no such query
+     */
+    public String getQuery(Class<?> klazz, String queryName) {
+        NamedQueryInfo info = get(klazz, queryName);
+        return info == null ? null : info.getQuery();
+    }
+
+    public void setEmf(EntityManagerFactory emf) {
+        this.emf = emf;
+    }
+
+    private List<NamedQuery> declaredQueries(Class<?> klazz) {
+        List<NamedQuery> declared = new ArrayList<NamedQuery>();
+        NamedQuery single = klazz.getAnnotation(NamedQuery.class);
+        if(single != null) {
+            declared.add(single);
+        }
+        NamedQueries multiple = klazz.getAnnotation(NamedQueries.class);
+        if(multiple != null) {
+            Collections.addAll(declared, multiple.value());
+        }
+        return declared;
+    }
+
+    private void validate(NamedQueryInfo info) {
+        if(info.getName().toLowerCase().endsWith(FIND_BY_UK.toLowerCase()) && info.getParameters().isEmpty()) {
+            throw new IllegalStateException("Malformed @NamedQuery " + info
+                    + ": expected at least one 'property = :param' condition in [" + info.getQuery() + "]");
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.easyj.orm.jpa;
+
+import java.util.NoSuchElementException;
+import org.easyj.orm.ResultStream;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+/**
+ * {@link ResultStream} backed by Hibernate forward-only {@code ScrollableResults}.
+ * <br><br>
+ * Each row is evicted from the {@code Session} when the next one is requested,
+ * so the persistence context does not grow with the result.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+class ScrollableResultStream<E> implements ResultStream<E> {
+
+    private final SingleJPAEntityDao dao;
+    private final Session session;
+    private final ScrollableResults results;
+
+    private Object current;
+    private boolean fetched;
+    private boolean available;
+    private boolean closed;
+
+    /**
+     * @param dao {@code Dao} that opened the cursor, released on close
+     * @param session {@code Session} the rows are attached to
+     * @param results open cursor, or null for an empty stream
+     */
+    ScrollableResultStream(SingleJPAEntityDao dao, Session session, ScrollableResults results) {
+        this.dao = dao;
+        this.session = session;
+        this.results = results;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(!fetched) {
+            detach();
+            available = !closed && results != null && results.next();
+            fetched = true;
+            if(!available) {
+                close();
+            }
+        }
+        return available;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        Object[] row = results.get();
+        current = row.length == 1 ? row[0] : row;
+        return (E) current;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("ResultStream is read-only");
+    }
+
+    @Override
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            detach();
+            if(results != null) {
+                results.close();
+            }
+        } finally {
+            dao.closeEm();
+        }
+    }
+
+    private void detach() {
+        if(current != null && session != null && session.contains(current)) {
+            session.evict(current);
+        }
+        current = null;
+    }
+
+}
@@ -17,16 +17,33 @@
 package org.easyj.orm.jpa;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import org.easyj.orm.AbstractSingleDao;
+import org.easyj.orm.ColumnBatch;
+import org.easyj.orm.FetchPlan;
+import org.easyj.orm.ResultStream;
 import org.easyj.orm.SingleDao;
+import org.easyj.orm.jpa.EntityManagerRouter.Replica;
+import org.hibernate.ScrollMode;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.NamedQueryDefinition;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.proxy.HibernateProxyHelper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Single JPA {@code Dao} that implements JPA specific methods
@@ -37,13 +54,26 @@ import org.springframework.stereotype.Repository;
 @Repository
 public class SingleJPAEntityDao extends AbstractSingleDao {
 
+    private static final String HINT_FETCH_SIZE = "org.hibernate.fetchSize";
+    private static final String HINT_READ_ONLY = "org.hibernate.readOnly";
+
     @PersistenceContext
     private EntityManager em;
 
+    private EntityManagerRouter router;
+
+    private final ConcurrentMap<Class<?>, JPAEntityMetadata> metadata = new ConcurrentHashMap<Class<?>, JPAEntityMetadata>();
+
+    private final ConcurrentMap<Class<?>, InsertMetadata> inserts = new ConcurrentHashMap<Class<?>, InsertMetadata>();
+
+    private boolean multiRowInsert = true;
+
     @Override
     protected <E> E merge(E entity) {
         E newT = null;
+        markWrite();
         try {
+            evictReadOnly(entity);
             newT = getEm().merge(entity);
         } finally {
             closeEm();
@@ -51,13 +81,69 @@ public class SingleJPAEntityDao extends AbstractSingleDao {
         return newT;
     }
 
+    @Override
+    protected <E> E persist(E entity) {
+        markWrite();
+        try {
+            getEm().persist(entity);
+        } finally {
+            closeEm();
+        }
+        return entity;
+    }
+
+    @Override
+    protected <E> E mergeInBatch(E entity) {
+        markWrite();
+        evictReadOnly(entity);
+        return getEm().merge(entity);
+    }
+
+    @Override
+    protected <E> E persistInBatch(E entity) {
+        markWrite();
+        getEm().persist(entity);
+        return entity;
+    }
+
+    @Override
+    protected boolean isNew(Object entity) {
+        return getMetadata(getEntityClass(entity)).isNew(entity);
+    }
+
+    @Override
+    protected <E> int insertChunk(Class<E> klazz, List<E> entities) {
+        markWrite();
+        try {
+            Session session = getEm().unwrap(Session.class);
+            session.flush();
+            return session.doReturningWork(new BulkInsertWork(getInsertMetadata(klazz, session), entities, (SessionImplementor) session, multiRowInsert));
+        } finally {
+            closeEm();
+        }
+    }
+
+    @Override
+    protected void flushBatch() {
+        getEm().flush();
+        getEm().clear();
+    }
+
+    @Override
+    protected void endBatch() {
+        closeEm();
+    }
+
     @Override
     protected int executeUpdate(String query, Map<String, Object> params, QueryType queryType) {
         Query q;
         int result = -1;
+        markWrite();
         try {
-            if(query.toLowerCase().startsWith("update ") || query.toLowerCase().startsWith("insert into") || query.toLowerCase().startsWith("delete from ")) {
+            if(QueryType.NATIVE.equals(queryType)) {
                 q = getEm().createNativeQuery(query);
+            } else if(QueryType.JPQL.equals(queryType)) {
+                q = getEm().createQuery(query);
             } else {
                 q = getEm().createNamedQuery(query);
             }
@@ -70,50 +156,252 @@ public class SingleJPAEntityDao extends AbstractSingleDao {
         return result;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     protected <E> E getSingleResultByQuery(String query, Class<E> klazz, Map<String, Object> params, QueryType queryType) {
         E entity = null;
-        TypedQuery<E> q = null;
+        Query q = null;
+        Replica replica = route();
         try {
+            EntityManager readEm = getEm(replica);
             if(QueryType.JPQL.equals(queryType)) {
-                q = getEm().createQuery(query, klazz);
+                q = readEm.createQuery(query, klazz);
             } else if(QueryType.NAMED.equals(queryType)) {
-                q = getEm().createNamedQuery(query, klazz);
+                q = readEm.createNamedQuery(query, klazz);
+            } else if(QueryType.NATIVE.equals(queryType)) {
+                q = createNativeQuery(readEm, query, klazz);
             }
+            setReadOnly(q, params);
             if(setParameters(q, params)) {
-                entity = q.getSingleResult();
+                entity = (E) q.getSingleResult();
             }
         } finally {
+            release(replica);
             closeEm();
         }
         return entity;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     protected <E> List<E> getResultListByQuery(String query, Class<E> klazz, Map<String, Object> params, QueryType queryType) {
         List<E> result = new ArrayList<E>();
-        TypedQuery<E> q = null;
+        Query q = null;
+        Replica replica = route();
         try {
+            EntityManager readEm = getEm(replica);
             if(QueryType.JPQL.equals(queryType)) {
-                q = getEm().createQuery(query, klazz);
+                q = readEm.createQuery(query, klazz);
             } else if(QueryType.NAMED.equals(queryType)) {
-                q = getEm().createNamedQuery(query, klazz);
+                q = readEm.createNamedQuery(query, klazz);
+            } else if(QueryType.NATIVE.equals(queryType)) {
+                q = createNativeQuery(readEm, query, klazz);
             }
+            setReadOnly(q, params);
             if(setParameters(q, params)) {
                 result = q.getResultList();
             }
         } finally {
+            release(replica);
+            closeEm();
+        }
+        return result;
+    }
+
+    @Override
+    protected List<?> getProjectionListByQuery(String query, Map<String, Object> params, QueryType queryType) {
+        List<?> result = new ArrayList<Object>();
+        Query q;
+        Replica replica = route();
+        try {
+            EntityManager readEm = getEm(replica);
+            if(QueryType.NATIVE.equals(queryType)) {
+                q = readEm.createNativeQuery(query);
+            } else if(QueryType.JPQL.equals(queryType)) {
+                q = readEm.createQuery(query);
+            } else {
+                q = readEm.createNamedQuery(query);
+            }
+            setReadOnly(q, params);
+            if(setParameters(q, params)) {
+                result = q.getResultList();
+            }
+        } finally {
+            release(replica);
             closeEm();
         }
         return result;
     }
 
+    /**
+     * Creates a native query mapped to the entity {@code Class}, or returning raw columns for any other {@code Class}
+     */
+    private Query createNativeQuery(EntityManager readEm, String query, Class<?> klazz) {
+        try {
+            getEm().getMetamodel().entity(klazz);
+        } catch(IllegalArgumentException notAnEntity) {
+            return readEm.createNativeQuery(query);
+        }
+        return readEm.createNativeQuery(query, klazz);
+    }
+
+    @Override
+    protected ColumnBatch getColumnsByNativeQuery(String query, Map<String, Object> params, ColumnBatch.Type[] types) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        if(params != null) {
+            values.putAll(params);
+        }
+        Integer startPosition = (Integer) values.remove(SingleDao.PARAM_START_POSITION);
+        Integer maxResults = (Integer) values.remove(SingleDao.PARAM_MAX_RESULTS);
+        Integer fetchSize = (Integer) values.remove(SingleDao.PARAM_FETCH_SIZE);
+        values.remove(SingleDao.PARAM_READ_ONLY);
+
+        ColumnBatchWork work = new ColumnBatchWork(query, values, types,
+                startPosition == null ? 0 : startPosition.intValue(),
+                maxResults == null ? 0 : maxResults.intValue(),
+                fetchSize == null ? getFetchSize() : fetchSize.intValue());
+        Replica replica = route();
+        try {
+            return getEm(replica).unwrap(Session.class).doReturningWork(work);
+        } finally {
+            release(replica);
+            closeEm();
+        }
+    }
+
+    @Override
+    protected <E> ResultStream<E> scrollByQuery(String query, Class<E> klazz, Map<String, Object> params, QueryType queryType) {
+        TypedQuery<E> q = null;
+        boolean opened = false;
+        try {
+            if(QueryType.JPQL.equals(queryType)) {
+                q = getEm().createQuery(query, klazz);
+            } else if(QueryType.NAMED.equals(queryType)) {
+                q = getEm().createNamedQuery(query, klazz);
+            }
+            if(q == null) {
+                return new ScrollableResultStream<E>(this, null, null);
+            }
+            q.setHint(HINT_FETCH_SIZE, getFetchSize());
+            if(!setParameters(q, params)) {
+                return new ScrollableResultStream<E>(this, null, null);
+            }
+            org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
+            hq.setReadOnly(true);
+            ResultStream<E> stream = new ScrollableResultStream<E>(this, getEm().unwrap(Session.class), hq.scroll(ScrollMode.FORWARD_ONLY));
+            opened = true;
+            return stream;
+        } finally {
+            if(!opened) {
+                closeEm();
+            }
+        }
+    }
+
+    /**
+     * Entities read within a {@link UnitOfWork} stay managed until it ends, so they are not cached
+     */
+    @Override
+    protected boolean isCacheableRead() {
+        return !UnitOfWork.isActive() && super.isCacheableRead();
+    }
+
+    @Override
+    protected String getQueryString(String query, QueryType queryType) {
+        if(!QueryType.NAMED.equals(queryType)) {
+            return query;
+        }
+        SessionFactoryImplementor factory = ((SessionImplementor) getEm().unwrap(Session.class)).getFactory();
+        NamedQueryDefinition definition = factory.getNamedQuery(query);
+        if(definition == null) {
+            definition = factory.getNamedSQLQuery(query);
+        }
+        if(definition == null) {
+            throw new IllegalArgumentException("No query defined for that name [" + query + "]");
+        }
+        return definition.getQueryString();
+    }
+
+    @Override
+    protected Object getAttributeValue(Class<?> klazz, Object entity, String attribute) {
+        return getMetadata(klazz).getValue(entity, attribute);
+    }
+
+    @Override
+    protected void setAttributeValue(Class<?> klazz, Object entity, String attribute, Object value) {
+        getMetadata(klazz).setValue(entity, attribute, value);
+    }
+
+    @Override
+    protected String findIdAttribute(Class<?> klazz) {
+        return getMetadata(klazz).getIdAttribute();
+    }
+
+    @Override
+    protected String getVersionAttribute(Class<?> klazz) {
+        return getMetadata(klazz).getNumericVersionAttribute();
+    }
+
+    @Override
+    protected Object getIdentifier(Object entity) {
+        return getEm().getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity);
+    }
+
+    @Override
+    protected Class<?> getEntityClass(Object entity) {
+        return HibernateProxyHelper.getClassWithoutInitializingProxy(entity);
+    }
+
+    /**
+     * Returns the metamodel based metadata of an entity, built on first use
+     *
+     * @param klazz entity {@code Class}
+     * @return entity metadata
+     */
+    JPAEntityMetadata getMetadata(Class<?> klazz) {
+        JPAEntityMetadata meta = metadata.get(klazz);
+        if(meta == null) {
+            meta = new JPAEntityMetadata(getEm().getMetamodel().entity(klazz));
+            JPAEntityMetadata existing = metadata.putIfAbsent(klazz, meta);
+            if(existing != null) {
+                meta = existing;
+            }
+        }
+        return meta;
+    }
+
+    private InsertMetadata getInsertMetadata(Class<?> klazz, Session session) {
+        InsertMetadata meta = inserts.get(klazz);
+        if(meta == null) {
+            meta = new InsertMetadata(((SessionImplementor) session).getFactory().getEntityPersister(klazz.getName()));
+            InsertMetadata existing = inserts.putIfAbsent(klazz, meta);
+            if(existing != null) {
+                meta = existing;
+            }
+        }
+        return meta;
+    }
+
+    /**
+     * Applies the read-only hints when {@link #PARAM_READ_ONLY} is set, or when it is absent and
+     * the {@code Dao} is read-only: loaded entities are not dirty-checked and the query does not
+     * flush pending changes first.
+     */
+    private void setReadOnly(Query q, Map<String, Object> params) {
+        Boolean readOnly = params == null ? null : (Boolean) params.get(SingleDao.PARAM_READ_ONLY);
+        if(q != null && (readOnly == null ? isReadOnly() : readOnly.booleanValue())) {
+            q.setHint(HINT_READ_ONLY, Boolean.TRUE);
+            q.setFlushMode(FlushModeType.COMMIT);
+        }
+    }
+
     /**
      * Binds parameter map to the query.
      * 
-     * There are two special parameters that is of use:
+     * There are three special parameters that is of use:
      * {@link SingleService.PARAM_MAX_RESULTS} used to limit maximum results returned
      * {@link SingleService.PARAM_START_POSITION} used to tell the starting position the result should start
+     * {@link SingleService.PARAM_FETCH_SIZE} used to tell how many rows are fetched per round trip
      *
      * @param q query to bind parameters
      * @param params parameter map to bind into the query
@@ -121,17 +409,25 @@ public class SingleJPAEntityDao extends AbstractSingleDao {
      */
     private boolean setParameters(Query q, Map<String, Object> params) {
         if(q != null && params != null) {
-            Integer maxResults = (Integer) params.remove(SingleDao.PARAM_MAX_RESULTS);
+            Integer maxResults = (Integer) params.get(SingleDao.PARAM_MAX_RESULTS);
             if(maxResults != null && maxResults > 0) {
                 q.setMaxResults(maxResults.intValue());
             }
 
-            Integer startPosition = (Integer) params.remove(SingleDao.PARAM_START_POSITION);
+            Integer startPosition = (Integer) params.get(SingleDao.PARAM_START_POSITION);
             if(startPosition != null && startPosition > -1) {
                 q.setFirstResult(startPosition.intValue());
             }
 
+            Integer fetchSize = (Integer) params.get(SingleDao.PARAM_FETCH_SIZE);
+            if(fetchSize != null && fetchSize > 0) {
+                q.setHint(HINT_FETCH_SIZE, fetchSize);
+            }
+
             for(Entry<String, Object> o : params.entrySet()) {
+                if(RESERVED_PARAMS.contains(o.getKey())) {
+                    continue;
+                }
                 try {
                     q.setParameter(o.getKey().trim(), o.getValue());
                 } catch(IllegalArgumentException ex) {
@@ -159,37 +455,144 @@ public class SingleJPAEntityDao extends AbstractSingleDao {
         return em;
     }
 
+    /**
+     * Closes the {@code EntityManager} after an operation, unless a {@link UnitOfWork} keeps it open
+     */
     public void closeEm() {
-        if(getEm().isOpen()) {
+        if(!UnitOfWork.isActive() && getEm().isOpen()) {
             getEm().close();
         }
     }
 
-     /**
-     * Finds a single entity in the database
-     * 
-     * @param klazz class of entity to be found
-     * @param primaryKey primary key value of the entity to be found
-     * @return entity found or null if none is found
+    /**
+     * Tells whether {@code bulkInsert} writes multi-row {@code INSERT} statements
+     *
+     * @return true for multi-row statements, false for JDBC batches of single-row statements
+     */
+    public boolean isMultiRowInsert() {
+        return multiRowInsert;
+    }
+
+    /**
+     * Sets whether {@code bulkInsert} writes multi-row {@code INSERT ... VALUES (...), (...)} statements.
+     * Disable it for databases that do not support them, such as Oracle.
+     *
+     * @param multiRowInsert true for multi-row statements, false for JDBC batches of single-row statements
+     */
+    public void setMultiRowInsert(boolean multiRowInsert) {
+        this.multiRowInsert = multiRowInsert;
+    }
+
+    /**
+     * Returns the router sending reads to replicas
+     *
+     * @return router or null if every operation goes to the primary {@code EntityManager}
+     */
+    public EntityManagerRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Sets the router sending reads to replicas
+     *
+     * @param router router or null to send every operation to the primary {@code EntityManager}
      */
+    @Autowired(required = false)
+    public void setRouter(EntityManagerRouter router) {
+        this.router = router;
+    }
+
+    private Replica route() {
+        return router == null ? null : router.route();
+    }
+
+    private void release(Replica replica) {
+        if(replica != null) {
+            router.release(replica);
+        }
+    }
+
+    /**
+     * Evicts an entity managed read-only, whose changes merge would otherwise ignore.
+     * This happens when a {@link UnitOfWork} shares the context of a read-only finder with a later save.
+     */
+    private void evictReadOnly(Object entity) {
+        Session session = getEm().unwrap(Session.class);
+        if(session.contains(entity) && session.isReadOnly(entity)) {
+            session.evict(entity);
+        }
+    }
+
+    private void markWrite() {
+        if(router != null) {
+            router.markWrite();
+        }
+    }
+
+    private EntityManager getEm(Replica replica) {
+        return replica == null ? getEm() : replica.getEntityManager();
+    }
+
     @Override
-    public <E, ID> E findOne(Class<E> klazz, ID primaryKey) {
-        return getEm().find(klazz, primaryKey);
+    protected <E, ID> E find(Class<E> klazz, ID primaryKey) {
+        Replica replica = route();
+        try {
+            EntityManager readEm = getEm(replica);
+            E entity = readEm.find(klazz, primaryKey);
+            if(entity != null && isReadOnly()) {
+                readEm.unwrap(Session.class).setReadOnly(entity, true);
+            }
+            return entity;
+        } finally {
+            release(replica);
+        }
+    }
+
+    /**
+     * Deletes entity from database, looking it up on the primary {@code EntityManager}
+     *
+     * @param klazz Entity {@code Class}
+     * @param primaryKey Entity's primary key value
+     * @return removed entity
+     */
+    @Override
+    public <E, ID> E delete(Class<E> klazz, ID primaryKey) {
+        markWrite();
+        return super.delete(klazz, primaryKey);
     }
 
     @Override
     protected <E> void remove(E entity) {
-        getEm().remove(entity);
+        markWrite();
+        getEm().remove(getEm().contains(entity) ? entity : getEm().merge(entity));
     }
 
+    @Transactional(readOnly = true)
     @Override
     public <E> List<E> findAll(Class<E> klazz) {
         return findAll(klazz, null);
     }
 
+    @Transactional(readOnly = true)
     @Override
     public <E> List<E> findAll(Class<E> klazz, Map<String, Object> params) {
-        return findListByQuery("FROM " + klazz.getName() + " c " + queryParams(params), klazz, params);
+        return findListByQuery(findAllQuery(klazz, params), klazz, params);
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public <E> List<E> findAll(Class<E> klazz, Map<String, Object> params, FetchPlan fetchPlan) {
+        return findListByQuery(findAllQuery(klazz, params), klazz, params, fetchPlan);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Override
+    public <E> ResultStream<E> streamAll(Class<E> klazz, Map<String, Object> params) {
+        return streamListByQuery(findAllQuery(klazz, params), klazz, params);
+    }
+
+    private String findAllQuery(Class<?> klazz, Map<String, Object> params) {
+        return getQueryCache().get(klazz, "findAll", paramNames(params), FIND_ALL_QUERY);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm.jpa;
+
+import org.easyj.orm.StatementCounter;
+import org.hibernate.EmptyInterceptor;
+
+/**
+ * Hibernate {@code Interceptor} reporting every statement prepared to {@link StatementCounter}
+ * <br><br>
+ * Registered for the whole persistence unit with the property
+ * {@code hibernate.ejb.interceptor=org.easyj.orm.jpa.StatementCountingInterceptor}.
+ * Statements run directly on the JDBC {@code Connection}, such as those of {@code bulkInsert}
+ * and {@code findColumnsByNativeQuery}, are not seen. Hibernate calls the interceptor when it prepares
+ * a statement, so a JDBC batch is reported once, not once per row it executes.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class StatementCountingInterceptor extends EmptyInterceptor {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        StatementCounter.record(sql);
+        return sql;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm.jpa;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Shares one persistence context among all {@code Dao} calls made by the current thread between
+ * {@link #begin(javax.persistence.EntityManagerFactory)} and {@link #end()}
+ * <br><br>
+ * Each {@code Dao} call otherwise runs in its own transaction with its own {@code EntityManager},
+ * so an entity found twice is selected twice. Within a unit of work the {@code EntityManager} is
+ * bound to the thread the way Spring's {@code OpenEntityManagerInViewInterceptor} does: every
+ * transaction, and the shared {@code @PersistenceContext}, use it, entities stay managed between
+ * calls and {@code findOne} of an entity already loaded is answered from the persistence context.
+ * It is closed only when the outermost unit ends. Reads are not routed to replicas meanwhile,
+ * so they see the entities of the persistence context.
+ * <br><br>
+ * A unit begun while an {@code EntityManager} is already bound, by an outer unit or a running
+ * transaction, joins it. Units must be ended in a {@code finally} block by the thread that began them:
+ * <pre>
+ * UnitOfWork.begin(emf);
+ * try {
+ *     ...
+ * } finally {
+ *     UnitOfWork.end();
+ * }
+ * </pre>
+ * Since entities are kept until the unit ends, units are meant for one request or service call,
+ * not for batch jobs reading many entities.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ * @see UnitOfWorkAdvice
+ */
+public final class UnitOfWork {
+
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<Scope>();
+
+    private UnitOfWork() {
+    }
+
+    /**
+     * Starts a unit of work on the current thread, opening an {@code EntityManager} unless one is bound
+     *
+     * @param emf {@code EntityManagerFactory} of the {@code Daos}
+     */
+    public static void begin(EntityManagerFactory emf) {
+        EntityManager em = null;
+        if(!TransactionSynchronizationManager.hasResource(emf)) {
+            em = emf.createEntityManager();
+            TransactionSynchronizationManager.bindResource(emf, new EntityManagerHolder(em));
+        }
+        SCOPE.set(new Scope(emf, em, SCOPE.get()));
+    }
+
+    /**
+     * Ends the unit begun last, closing its {@code EntityManager} if the unit opened it
+     */
+    public static void end() {
+        Scope scope = SCOPE.get();
+        if(scope == null) {
+            return;
+        }
+        if(scope.parent == null) {
+            SCOPE.remove();
+        } else {
+            SCOPE.set(scope.parent);
+        }
+        if(scope.entityManager != null) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(scope.entityManagerFactory);
+            EntityManagerFactoryUtils.closeEntityManager(scope.entityManager);
+        }
+    }
+
+    /**
+     * @return true if a unit of work is open on the current thread
+     */
+    public static boolean isActive() {
+        return SCOPE.get() != null;
+    }
+
+    private static final class Scope {
+
+        private final EntityManagerFactory entityManagerFactory;
+        private final EntityManager entityManager;
+        private final Scope parent;
+
+        private Scope(EntityManagerFactory entityManagerFactory, EntityManager entityManager, Scope parent) {
+            this.entityManagerFactory = entityManagerFactory;
+            this.entityManager = entityManager;
+            this.parent = parent;
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2009-2012 the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.easyj.orm.jpa;
+
+import javax.persistence.EntityManagerFactory;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Advice running each advised call in a {@link UnitOfWork}, so the {@code Dao} calls it makes
+ * share one persistence context. Applied, for instance, with:
+ * <pre>
+ * &lt;bean id="unitOfWorkAdvice" class="org.easyj.orm.jpa.UnitOfWorkAdvice"&gt;
+ *     &lt;property name="entityManagerFactory" ref="entityManagerFactory"/&gt;
+ * &lt;/bean&gt;
+ * &lt;aop:config&gt;
+ *     &lt;aop:advisor advice-ref="unitOfWorkAdvice" pointcut="execution(* com.example.service..*(..))"/&gt;
+ * &lt;/aop:config&gt;
+ * </pre>
+ * Calls made inside another advised call join its unit of work.
+ *
+ * @author Rafael Raposo
+ * @since 1.3.0
+ */
+public class UnitOfWorkAdvice implements MethodInterceptor {
+
+    private EntityManagerFactory entityManagerFactory;
+
+    public UnitOfWorkAdvice() {
+    }
+
+    public UnitOfWorkAdvice(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        UnitOfWork.begin(entityManagerFactory);
+        try {
+            return invocation.proceed();
+        } finally {
+            UnitOfWork.end();
+        }
+    }
+
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
+    public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+}